@@ -1,30 +1,36 @@
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * 
  * A simple class that maintains a set of terminal symbols
  * Each symbol is assumed to be a string
  * It is basically a wrapper over an ArrayList of Strings, for easy understanding
+ * A HashSet of the same strings makes contains constant time
  */
 public class Alphabet implements Iterable<String>
 {
 	private List<String> alphabet;
+	private Set<String> index;
+	
 	public Alphabet()
 	{
 		alphabet = new ArrayList<String>();
+		index = new HashSet<String>();
 	}
 	
 	public void add(String symbol)
 	{
-		if(!alphabet.contains(symbol))
+		if(index.add(symbol))
 			alphabet.add(symbol);
 	}
 	
 	public boolean contains(String symbol)
 	{
-		return alphabet.contains(symbol);
+		return index.contains(symbol);
 	}
 	
 	public int size()
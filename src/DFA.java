@@ -1,5 +1,16 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 
@@ -12,7 +23,10 @@ import java.util.HashSet;
  *
  * The output is a DFA with following properties:
  * 1. Maintains which state is reduce state
- * 2. Maintains a separate copy of each production in each state.
+ * 2. Each state only keeps a separate copy of its kernel productions. The rest
+ * 		of the productions are worked out from the kernel when they are asked for
+ * 3. The kernel of a state is sorted by rule and dot, so the order of everything
+ * 		worked out from it does not depend on which state found it first
  */
 public class DFA 
 {
@@ -39,9 +53,9 @@ public class DFA
 		public class Link
 		{
 			State ptr;
-			String transition;
+			int transition;
 			
-			public Link(State ptr, String transition)
+			public Link(State ptr, int transition)
 			{
 				this.ptr = ptr;
 				this.transition = transition;
@@ -55,24 +69,31 @@ public class DFA
 		 * A class which represents a production within a DFA state
 		 * Extends Grammar.Production
 		 * Adds a dot and lookahead set to the parent class
+		 * The lookahead is a bitset of terminal ids
 		 * Has a function to calculate the lookahead for the productions 
 		 * that will be expanded from it
 		 * 
-		 * The dot parameter is a pointer to the arrayrhs
+		 * The dot parameter is a pointer to the rhs
 		 */
-		public class Production extends Grammar.Production
+		public class Production extends Grammar.Production implements Comparable<Production>
 		{	
 			private int dot;
-			private HashSet<String> lookahead;
+			private BitSet lookahead;
 			
 			/*
 			 * Creates a DFA production from a Grammar production and a set of lookaheads
 			 */
-			public Production(Grammar.Production p, HashSet<String> looks)
+			public Production(Grammar.Production p, BitSet looks)
+			{
+				this(p, 0, looks);
+			}
+			
+			//Creates a DFA production with its dot at the given place
+			public Production(Grammar.Production p, int dot, BitSet looks)
 			{
 				grammar.super(p);
-				dot = 0;
-				lookahead = new HashSet<String>(looks);
+				this.dot = dot;
+				lookahead = (BitSet) looks.clone();
 			}
 			
 			/*
@@ -85,51 +106,54 @@ public class DFA
 				grammar.super(p);
 				
 				dot = p.dot + 1;
-				lookahead = new HashSet<String>(p.lookahead);
-				
-				System.out.println("Constructed "+this+" from "+p);
+				lookahead = (BitSet) p.lookahead.clone();
 			}
 			
-			public HashSet<String> getFirstset()
+			public BitSet getFirstset()
 			{
 				return lookahead;
 			}
 			
-			public String getSymbolAfterDot()
+			public int getSymbolAfterDot()
 			{
-				return arrayrhs.get(dot);	//may not work
+				return rhs[dot];
 			}
 			
 			public boolean dotAtEnd()
 			{
-				return dot >= arrayrhs.size();
+				return dot >= rhs.length;
 			}
 			
-			public HashSet<String> getLookaheadForChildren()
+			//True if every symbol from the dot on is productive, so some input can still finish the production
+			public boolean canComplete()
 			{
-				/*Since we assume that non-terminals aren't NULLABLE, we just take the 
-				 * first of the symbol after the symbol after the dot
-				 * if no such symbol, simply return current ones lookahead
-				 */
-				
-				String nexttonext = null;
-				if(dot + 1 < arrayrhs.size())
+				for(int i=dot; i<rhs.length; i++)
 				{
-					dot++;
-					nexttonext = getSymbolAfterDot();
-					dot--;
-					
-					if(grammar.isNonTerminal(nexttonext))
-						return grammar.getFirstSet(nexttonext);
-					else
-					{
-						HashSet<String> set = new HashSet<String>();
-						set.add(nexttonext);
-						return set;
-					}
+					if(!grammar.isProductive(rhs[i]))
+						return false;
 				}
-				else
+				return true;
+			}
+			
+			public BitSet getLookaheadForChildren()
+			{
+				/*Take the first of the symbols after the symbol after the dot,
+				 * and the current ones lookahead as well if all of them are nullable
+				 * The common cases (a symbol that is not nullable, or no symbol at all)
+				 * return a shared set without allocating
+				 */
+				
+				if(dot + 1 >= rhs.length)
 					return lookahead;
+				
+				if(!grammar.isNullable(rhs[dot + 1]))
+					return grammar.getFirstSet(rhs[dot + 1]);
+				
+				BitSet set = new BitSet();
+				if(grammar.addFirstOfSequence(rhs, dot + 1, set))
+					set.or(lookahead);
+				
+				return set;
 			}
 			
 			/*
@@ -138,22 +162,30 @@ public class DFA
 			 */
 			@Override
 			public String toString()
+			{
+				if(mode == Mode.SLR)
+					return getCoreString();
+				
+				return getCoreString() + "    " + grammar.getSymbols().toString(lookahead);
+			}
+			
+			//The production with its dot, without the lookahead
+			public String getCoreString()
 			{
 				String str = lhs + "->";
 				
-				for(int i=0; i<arrayrhs.size(); i++)
+				SymbolTable symbols = grammar.getSymbols();
+				for(int i=0; i<rhs.length; i++)
 				{
 					if(i == dot)
 						str = str + ".";
 					
-					str = str + arrayrhs.get(i);
+					str = str + symbols.getName(rhs[i]);
 				}
 				
-				if(dot == arrayrhs.size())
+				if(dot == rhs.length)
 					str = str + ".";
 				
-				str = str + "    " + lookahead;
-				
 				return str;
 			}
 			
@@ -163,18 +195,60 @@ public class DFA
 				if(o instanceof Production)
 				{
 					Production temp = (Production) o;
-					if(temp.lhs.equals(this.lhs) && temp.stringrhs.equals(this.stringrhs) && temp.dot == this.dot && lookahead.equals(temp.lookahead))
+					if(temp.rulenumber == this.rulenumber && temp.dot == this.dot && lookahead.equals(temp.lookahead))
 						return true;
 				}
 				
 				return false;
 			}
+			
+			@Override
+			public int hashCode()
+			{
+				return 31 * (31 * rulenumber + dot) + lookahead.hashCode();
+			}
+			
+			/*
+			 * Orders productions by rule number, then dot
+			 * Used to put the kernel of a state in a canonical order. A state never
+			 * has two productions with the same core, so the lookahead is not needed
+			 */
+			@Override
+			public int compareTo(Production p)
+			{
+				if(rulenumber != p.rulenumber)
+					return rulenumber < p.rulenumber ? -1 : 1;
+				
+				if(dot != p.dot)
+					return dot < p.dot ? -1 : 1;
+				
+				return 0;
+			}
+			
+			/*
+			 * Adds the given lookaheads to this production
+			 * Returns true if the lookahead set grew
+			 */
+			public boolean addLookahead(BitSet looks)
+			{
+				int before = lookahead.cardinality();
+				lookahead.or(looks);
+				return lookahead.cardinality() != before;
+			}
+			
+			//Two productions have the same core if they only differ in lookahead
+			public boolean sameCore(Production p)
+			{
+				return rulenumber == p.rulenumber && dot == p.dot;
+			}
 		}
 		
 		ArrayList<Production> productions;
 		ArrayList<Link> links;
 		int number = -1;
 		boolean isreducestate;
+		boolean queued;		//true while the state waits in the worklist
+		LinkedHashMap<Integer, State> pendinglinks;	//links found by a parallel build, not yet added
 		
 		public State()
 		{
@@ -198,16 +272,66 @@ public class DFA
 			return productions.contains(production);
 		}
 		
+		//The productions the state was created with. These are the only ones it stores
+		public Production[] getKernel()
+		{
+			return productions.toArray(new Production[productions.size()]);
+		}
+		
+		//Finds the kernel production with the same core as the given one
+		public Production getKernelProduction(Production core)
+		{
+			for(Production p: productions)
+			{
+				if(p.sameCore(core))
+					return p;
+			}
+			
+			return null;
+		}
+		
+		/*
+		 * Returns the productions of this state that have their dot at the end
+		 * These are kernel productions, plus the empty productions of the closure
+		 * when the grammar has any, so the closure is only worked out in that case
+		 */
+		public Production[] getReductions()
+		{
+			ArrayList<Production> reductions = new ArrayList<Production>();
+			for(Production p: productions)
+			{
+				if(p.dotAtEnd())
+					reductions.add(p);
+			}
+			
+			if(grammar.hasEmptyProductions())
+			{
+				for(Production p: closure(this))
+				{
+					if(p.dotAtEnd())
+						reductions.add(p);
+				}
+			}
+			
+			return reductions.toArray(new Production[reductions.size()]);
+		}
+		
+		/*
+		 * Returns the kernel followed by the rest of the productions, which are
+		 * worked out again on every call and not kept by the state
+		 */
 		public Production[] getAllProductions()
 		{
-			Production[] prods = new Production[productions.size()];
+			ArrayList<Production> closure = closure(this);
+			Production[] prods = new Production[productions.size() + closure.size()];
 			
 			int i = 0;
 			for(Production d: productions)
 				prods[i++] = d;
+			for(Production d: closure)
+				prods[i++] = d;
 			
 			return prods;
-			
 		}
 		
 		public void addLink(Link link)
@@ -226,6 +350,18 @@ public class DFA
 			return alllinks;
 		}
 		
+		//Returns the link on the given symbol, or null if there is none
+		public Link getLink(int symbol)
+		{
+			for(Link link: links)
+			{
+				if(link.transition == symbol)
+					return link;
+			}
+			
+			return null;
+		}
+		
 		public Production getProduction(int index)
 		{
 			return productions.get(index);
@@ -235,37 +371,116 @@ public class DFA
 		{
 			return productions.size();
 		}
+	}
+	
+	/**
+	 * 
+	 * The ways a DFA can be constructed
+	 * CANONICAL: Canonical LR(1), a state for every distinct kernel
+	 * LALR: LALR(1), states with the same core are merged and their lookaheads combined
+	 * PAGER: Minimal LR(1) by Pager's method, states with the same core are merged only
+	 * 		when they are weakly compatible, so merging never adds a conflict. Accepts the
+	 * 		same language as canonical LR(1) with close to as few states as LALR(1)
+	 * SLR: LR(0) states without lookaheads. The table reduces on the follow set of the lhs
+	 *
+	 */
+	public enum Mode
+	{
+		CANONICAL("Canonical LR(1)"),
+		LALR("LALR(1)"),
+		PAGER("Minimal LR(1)"),
+		SLR("SLR(1)");
+		
+		private String name;
 		
-		private boolean totallyEqual(State first, State second)
+		private Mode(String name)
 		{
-			Production[] firstprods = first.getAllProductions();
-			Production[] secondprods = second.getAllProductions();
-			boolean foundequalprod;
-			
-			for(Production firstprod: firstprods)
+			this.name = name;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return name;
+		}
+	}
+	
+	/**
+	 * 
+	 * A hashable key for a state
+	 * Made from the kernel productions of the state (the ones it was created with),
+	 * sorted by rule and dot.
+	 * The rest of a state follows from its kernel, so two states are equal exactly
+	 * when their kernels are.
+	 * A key made without lookaheads only identifies the core of a state, which is
+	 * what LALR and Pager's method use to find the states to merge with.
+	 *
+	 */
+	private class Kernel
+	{
+		private int[] cores;			//rule and dot of each production, in pairs
+		private BitSet[] lookaheads;	//null if the key ignores lookaheads
+		private int hash;
+		
+		public Kernel(State state, boolean withlookaheads)
+		{
+			this(state, withlookaheads, null);
+		}
+		
+		/*
+		 * Makes the key the state would have with its rules renumbered by the given map,
+		 * which is how a state is looked up in a DFA of another grammar. The map may be null
+		 */
+		public Kernel(State state, boolean withlookaheads, final int[] rulemap)
+		{
+			State.Production[] items = state.getKernel();
+			if(rulemap == null)
+				Arrays.sort(items);
+			else
 			{
-				foundequalprod = false;
-				for(Production secondprod: secondprods)
+				Arrays.sort(items, new Comparator<State.Production>()
 				{
-					if(firstprod.equals(secondprod))
+					@Override
+					public int compare(State.Production a, State.Production b)
 					{
-						foundequalprod = true;
-						break;
+						int rulea = rulemap[a.getRuleNumber()], ruleb = rulemap[b.getRuleNumber()];
+						if(rulea != ruleb)
+							return rulea < ruleb ? -1 : 1;
+						return a.compareTo(b);
 					}
-				}
-				if(!foundequalprod)
-					return false;
+				});
+			}
+			
+			cores = new int[2 * items.length];
+			for(int i=0; i<items.length; i++)
+			{
+				cores[2 * i] = rulemap == null ? items[i].getRuleNumber() : rulemap[items[i].getRuleNumber()];
+				cores[2 * i + 1] = items[i].dot;
+			}
+			hash = Arrays.hashCode(cores);
+			
+			if(withlookaheads)
+			{
+				lookaheads = new BitSet[items.length];
+				for(int i=0; i<items.length; i++)
+					lookaheads[i] = items[i].lookahead;
+				hash = 31 * hash + Arrays.hashCode(lookaheads);
 			}
-			return true;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return hash;
 		}
 		
 		@Override
 		public boolean equals(Object o)
 		{
-			if(o instanceof State)
+			if(o instanceof Kernel)
 			{
-				State st = (State) o;
-				return totallyEqual(this, st) && totallyEqual(st, this);
+				Kernel k = (Kernel) o;
+				return hash == k.hash && Arrays.equals(cores, k.cores) && Arrays.equals(lookaheads, k.lookaheads);
 			}
 			
 			return false;
@@ -273,17 +488,105 @@ public class DFA
 	}
 	
 	private Grammar grammar;
+	private Mode mode;
 	private ArrayList<State> states;
+	private HashMap<Kernel, ArrayList<State>> statemap;	//more than one state per core only for PAGER
+	private ArrayList<String> mergeconflicts;
+	private long buildtime;
+	
+	//Used while building from a previous DFA
+	private DFA previous;
+	private int[] symbolmap, rulemap;	//from the previous grammar to this one, -1 if changed
+	private int[] previousrules;		//from this grammar to the previous one, -1 if changed
+	private boolean[] usable;			//by previous symbol: its productions are the same here
+	private int[] expandable;			//by previous symbol: 0 if not known yet, 1 if its closure is the same here, 2 if not
+	private AtomicInteger reusedstates = new AtomicInteger();
+	
 	State initial;
 	int statecount = 0;
 	StringBuffer output;
 	
 	public DFA(Grammar grammar)
+	{
+		this(grammar, Mode.CANONICAL);
+	}
+	
+	public DFA(Grammar grammar, Mode mode)
+	{
+		this(grammar, mode, 1);
+	}
+	
+	/*
+	 * Builds the DFA using the given number of threads
+	 * Only canonical LR(1) is built in parallel, since the merging modes depend on the
+	 * order states are found in. The other modes ignore the number of threads
+	 */
+	public DFA(Grammar grammar, Mode mode, int threads)
+	{
+		this(grammar, mode, threads, null);
+	}
+	
+	/*
+	 * Builds the DFA of a grammar that was edited from the grammar of a previous DFA
+	 * Canonical LR(1) and SLR states follow from their kernel alone, so a state of the previous
+	 * DFA whose closure only uses unchanged non-terminals has the same gotos here. Those are
+	 * taken from its links instead of working out its closure again, and the result is the
+	 * same as building from scratch. The merging modes build everything again, since their
+	 * lookaheads depend on the order of the whole build. The previous DFA may be null
+	 */
+	public DFA(Grammar grammar, Mode mode, DFA previous)
+	{
+		this(grammar, mode, 1, previous);
+	}
+	
+	private DFA(Grammar grammar, Mode mode, int threads, DFA previous)
 	{
 		this.grammar = grammar;
+		this.mode = mode;
 		states = new ArrayList<State>();
-		buildDFA();
-		numberStates(initial);
+		statemap = new HashMap<Kernel, ArrayList<State>>();
+		mergeconflicts = new ArrayList<String>();
+		
+		long start = System.nanoTime();
+		if(previous != null && previous.mode == mode && (mode == Mode.CANONICAL || mode == Mode.SLR))
+			mapPrevious(previous);
+		
+		if(threads > 1 && mode == Mode.CANONICAL)
+			buildDFAParallel(threads);
+		else
+			buildDFA();
+		
+		this.previous = null;
+		symbolmap = rulemap = previousrules = expandable = null;
+		usable = null;
+		buildtime = System.nanoTime() - start;
+	}
+	
+	public Mode getMode()
+	{
+		return mode;
+	}
+	
+	//Time taken to build the DFA, in milliseconds
+	public double getBuildTime()
+	{
+		return buildtime / 1e6;
+	}
+	
+	/*
+	 * Reduce/reduce conflicts that were not in any of the merged states, but
+	 * appeared when they were merged. Always empty for canonical LR(1), and
+	 * Pager's method only merges states when this cannot happen
+	 */
+	public ArrayList<String> getMergeConflicts()
+	{
+		return mergeconflicts;
+	}
+	
+	//Number of states whose gotos were taken from a previous DFA instead of worked out
+	public int getReusedStates()
+	{
+		return reusedstates.get();
 	}
 	
 	public Grammar getGrammar()
@@ -296,24 +599,13 @@ public class DFA
 		return initial;
 	}
 	
+	//States are numbered in the order they are added to the list
 	public State getState(int number)
 	{
-		for(State state: states)
-		{
-			if(state.number == number)
-				return state;
-		}
-		return null;
-	}
-	
-	private State getState(State copy)
-	{
-		for(State state: states)
-		{
-			if(state.equals(copy))
-				return state;
-		}
-		return null;
+		if(number < 0 || number >= states.size())
+			return null;
+		
+		return states.get(number);
 	}
 	
 	public ArrayList<State> getStateList()
@@ -321,131 +613,562 @@ public class DFA
 		return states;
 	}
 	
+	/*
+	 * Builds the DFA with a worklist instead of recursion, so the depth of the
+	 * DFA does not matter. States are numbered as they are discovered, which
+	 * gives a bfs numbering starting from the initial state.
+	 * A state whose lookaheads grow after a merge goes back into the worklist,
+	 * so the new lookaheads reach the states after it.
+	 */
 	private void buildDFA()
+	{
+		createInitialState();
+		putState(new Kernel(initial, mode == Mode.CANONICAL), initial);
+		
+		ArrayDeque<State> worklist = new ArrayDeque<State>();
+		worklist.add(initial);
+		initial.queued = true;
+		
+		while(!worklist.isEmpty())
+			generateNextStates(worklist.poll(), worklist);
+	}
+	
+	private void createInitialState()
 	{
 		Grammar.Production[] productions = grammar.getAllProductions();
 		
 		initial = new State();
-		//initial.setNumber(statecount++);	//dfs numbering
-		HashSet<String> init = new HashSet<String>();
-		init.add("$");
+		BitSet init = new BitSet();
+		if(mode != Mode.SLR)
+			init.set(grammar.getSymbols().getEndMarker());
 		State.Production startprod = initial.new Production(productions[0], init);	//start production
 		initial.addProduction(startprod);
 		
-		constructState(initial);
-		states.add(initial);
+		markReduceState(initial);
+		addState(initial);
+	}
+	
+	/*
+	 * Builds a canonical LR(1) DFA one bfs level at a time
+	 * The states of a level are expanded in parallel: their gotos and the closures of
+	 * new states are computed by the threads, and a concurrent map makes sure every
+	 * kernel gets one state. Numbers and links are then given out in a single thread,
+	 * in the same order the sequential worklist would, so the numbering is identical.
+	 * The map is copied into the statemap at the end, as the sequential build would leave it
+	 */
+	private void buildDFAParallel(int threads)
+	{
+		createInitialState();
+		
+		final ConcurrentHashMap<Kernel, State> canonical = new ConcurrentHashMap<Kernel, State>();
+		canonical.put(new Kernel(initial, true), initial);
 		
-		String[] symbols = grammar.getAllSymbols();
-		generateNextStates(initial, symbols);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try
+		{
+			ArrayList<State> frontier = new ArrayList<State>();
+			frontier.add(initial);
+			
+			while(!frontier.isEmpty())
+			{
+				pool.invoke(new ExpandLevel(frontier, 0, frontier.size(), canonical));
+				
+				ArrayList<State> next = new ArrayList<State>();
+				for(State state: frontier)
+				{
+					for(Map.Entry<Integer, State> go: state.pendinglinks.entrySet())
+					{
+						State target = go.getValue();
+						state.addLink(state.new Link(target, go.getKey()));
+						
+						if(target.number == -1)
+						{
+							addState(target);
+							next.add(target);
+						}
+					}
+					state.pendinglinks = null;
+				}
+				
+				frontier = next;
+			}
+			
+			//a later DFA may be built with this one as its previous, which looks states up in the statemap
+			for(Map.Entry<Kernel, State> entry: canonical.entrySet())
+				putState(entry.getKey(), entry.getValue());
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * 
+	 * Expands a range of the states of one bfs level, splitting the range
+	 * in two until it is small enough to do directly
+	 *
+	 */
+	private class ExpandLevel extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 8;
+		
+		private ArrayList<State> frontier;
+		private int from, to;
+		private ConcurrentHashMap<Kernel, State> canonical;
+		
+		public ExpandLevel(ArrayList<State> frontier, int from, int to, ConcurrentHashMap<Kernel, State> canonical)
+		{
+			this.frontier = frontier;
+			this.from = from;
+			this.to = to;
+			this.canonical = canonical;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(to - from <= THRESHOLD)
+			{
+				for(int i=from; i<to; i++)
+					expand(frontier.get(i));
+			}
+			else
+			{
+				int mid = (from + to) >>> 1;
+				invokeAll(new ExpandLevel(frontier, from, mid, canonical), new ExpandLevel(frontier, mid, to, canonical));
+			}
+		}
+		
+		private void expand(State state)
+		{
+			LinkedHashMap<Integer, State> gotos = partition(state);
+			
+			for(Map.Entry<Integer, State> go: gotos.entrySet())
+			{
+				State newstate = go.getValue();
+				State oldstate = canonical.putIfAbsent(new Kernel(newstate, true), newstate);
+				
+				if(oldstate == null)
+					markReduceState(newstate);
+				else
+					go.setValue(oldstate);
+			}
+			
+			state.pendinglinks = gotos;
+		}
+	}
+	
+	private void addState(State state)
+	{
+		state.setNumber(statecount++);
+		states.add(state);
 	}
 	
 	/*
-	 * Constructs a state that contains at least one production
-	 * Generates new productions based on position of the dot in current productions
+	 * Works out the productions of a state that are not in its kernel
+	 * Every kernel production with a non-terminal after its dot applies the closure
+	 * template of that non-terminal, with its own lookahead for the children.
+	 * The lookaheads are collected per non-terminal, since all productions of a
+	 * non-terminal get the same lookahead in a state, and the productions are made last
 	 */
-	private void constructState(State state)
+	private ArrayList<State.Production> closure(State state)
 	{
-		State.Production[] allprods = state.getAllProductions();
+		LinkedHashMap<Integer, BitSet> lookaheads = new LinkedHashMap<Integer, BitSet>();
 		
-		for(int i=0; i<allprods.length; i++)
+		for(State.Production prod: state.productions)
 		{
 			//check if this prod can be expanded
-			State.Production prod = state.getProduction(i);
-			
-			if(prod.dotAtEnd())
+			if(prod.dotAtEnd() || !grammar.isNonTerminal(prod.getSymbolAfterDot()))
 				continue;
 			
-			String next = prod.getSymbolAfterDot();
+			//prod can be expanded! So find lookahead for children
+			BitSet lookaheadforchildren = prod.getLookaheadForChildren();
+			Grammar.ClosureTemplate template = grammar.getClosureTemplate(prod.getSymbolAfterDot());
 			
-			if(grammar.isNonTerminal(next))
+			for(int j=0; j<template.size(); j++)
 			{
-				//prod can be expanded! So find lookahead for children
-				HashSet<String> lookaheadforchildren = prod.getLookaheadForChildren();
-				
-				Grammar.Production[] prods = grammar.getProductionsWithLHS(next);
-				for(Grammar.Production pr: prods)
+				BitSet lookahead = lookaheads.get(template.getNonTerminal(j));
+				if(lookahead == null)
 				{
-					State.Production addable = state.new Production(pr, lookaheadforchildren);
-					
-					if(!state.containsProduction(addable))
-						state.addProduction(addable);
+					lookahead = new BitSet();
+					lookaheads.put(template.getNonTerminal(j), lookahead);
 				}
-				allprods = state.getAllProductions();
+				
+				//LR(0) states have no lookaheads
+				if(mode == Mode.SLR)
+					continue;
+				
+				lookahead.or(template.getLookahead(j));
+				if(template.propagates(j))
+					lookahead.or(lookaheadforchildren);
+			}
+		}
+		
+		ArrayList<State.Production> closure = new ArrayList<State.Production>();
+		for(Map.Entry<Integer, BitSet> non: lookaheads.entrySet())
+		{
+			for(Grammar.Production pr: grammar.getProductionsWithLHS(non.getKey()))
+			{
+				//only the start production can be both in the kernel and in the closure
+				State.Production start = state.getProduction(0);
+				if(start.dot == 0 && start.getRuleNumber() == pr.getRuleNumber())
+					start.addLookahead(non.getValue());
+				else
+					closure.add(state.new Production(pr, non.getValue()));
 			}
 		}
 		
-		//Mark if this state is a reduce state. Parameter will be used by Table
+		return closure;
+	}
+	
+	//Mark if this state is a reduce state. Parameter will be used by Table
+	private void markReduceState(State state)
+	{
+		state.isreducestate = state.getReductions().length != 0;
+	}
+	
+	/*
+	 * Groups the productions of a state by the symbol after their dot, in a single pass
+	 * Returns the kernel of the next state for every symbol that has a transition,
+	 * in the order the symbols first appear in the state
+	 */
+	private LinkedHashMap<Integer, State> partition(State state)
+	{
+		if(previous != null && state != initial)
+		{
+			State old = findPreviousState(state);
+			if(old != null && canReuse(old))
+				return reuseGotos(old);
+		}
+		
+		LinkedHashMap<Integer, State> gotos = new LinkedHashMap<Integer, State>();
+		
 		for(State.Production p: state.getAllProductions())
 		{
 			if(p.dotAtEnd())
-				state.isreducestate = true;
+				continue;
+			
+			int transsym = p.getSymbolAfterDot();
+			State newstate = gotos.get(transsym);
+			if(newstate == null)
+			{
+				newstate = new State();
+				gotos.put(transsym, newstate);
+			}
+			
+			newstate.addProduction(newstate.new Production(p));
 		}
+		
+		for(State newstate: gotos.values())
+			Collections.sort(newstate.productions);
+		
+		return gotos;
 	}
 	
 	/*
-	 * Generates new states based on transitions of productions in current state
+	 * Maps the rules and symbols of the grammar of a previous DFA to this grammar
+	 * Working out the gotos of a state uses its kernel, the productions of every non-terminal
+	 * its closure adds, and the first sets and nullability of the symbols in all of those.
+	 * If none of them changed, a state with the same kernel has the same gotos here, with rules
+	 * and non-terminals renumbered. The initial state is always worked out, since its closure
+	 * can add to its kernel
 	 */
-	private void generateNextStates(State state, String[] symbols)
+	private void mapPrevious(DFA previous)
 	{
-		for(String transsym: symbols)
+		Grammar old = previous.grammar;
+		symbolmap = grammar.mapUnchangedSymbols(old);
+		if(symbolmap == null)
+			return;
+		
+		//a rule keeps its place among the productions of its lhs
+		rulemap = new int[old.productionCount()];
+		previousrules = new int[grammar.productionCount()];
+		Arrays.fill(rulemap, -1);
+		Arrays.fill(previousrules, -1);
+		usable = new boolean[symbolmap.length];
+		expandable = new int[symbolmap.length];
+		
+		for(int non: old.getAllNonTerminals())
 		{
-			State newstate = new State();
-			for(State.Production p: state.getAllProductions())
+			if(symbolmap[non] == -1)
+				continue;
+			
+			Grammar.Production[] prods = old.getProductionsWithLHS(non);
+			Grammar.Production[] now = grammar.getProductionsWithLHS(symbolmap[non]);
+			usable[non] = true;
+			for(int i=0; i<prods.length; i++)
 			{
-				if(p.dotAtEnd())
-					continue;
-				
-				if(p.getSymbolAfterDot().equals(transsym))
-					newstate.addProduction(newstate.new Production(p));
+				rulemap[prods[i].getRuleNumber()] = now[i].getRuleNumber();
+				previousrules[now[i].getRuleNumber()] = prods[i].getRuleNumber();
+				for(int symbol: prods[i].getRHS())
+				{
+					if(symbolmap[symbol] == -1)
+						usable[non] = false;
+				}
+			}
+		}
+		
+		this.previous = previous;
+	}
+	
+	//Finds the state of the previous DFA with the same kernel as a state here, if there is one
+	private State findPreviousState(State state)
+	{
+		for(State.Production p: state.productions)
+		{
+			if(previousrules[p.getRuleNumber()] == -1)
+				return null;
+		}
+		
+		ArrayList<State> list = previous.statemap.get(new Kernel(state, mode == Mode.CANONICAL, previousrules));
+		return list == null ? null : list.get(0);
+	}
+	
+	private boolean canReuse(State state)
+	{
+		Grammar old = previous.grammar;
+		for(State.Production p: state.productions)
+		{
+			for(int i=p.dot; i<p.rhs.length; i++)
+			{
+				if(symbolmap[p.rhs[i]] == -1)
+					return false;
 			}
 			
-			//If state for this transition is not empty
-			if(newstate.productionCount() != 0)
+			if(p.dotAtEnd() || !old.isNonTerminal(p.getSymbolAfterDot()))
+				continue;
+			
+			//a non-terminal is expanded the same way here if everything its template adds is usable
+			int non = p.getSymbolAfterDot();
+			if(expandable[non] == 0)
 			{
-				//finish adding the rest of the productions to this state
-				constructState(newstate);
-				
-				//if the state already exists, find the old state and link to that
-				if(states.contains(newstate))
+				Grammar.ClosureTemplate template = old.getClosureTemplate(non);
+				int result = 1;
+				for(int j=0; j<template.size(); j++)
 				{
-					State oldstate = getState(newstate); //will never be null... oh but it is :/
-					
-					State.Link link = state.new Link(oldstate, transsym);
-					state.addLink(link);
+					if(!usable[template.getNonTerminal(j)])
+						result = 2;
 				}
+				expandable[non] = result;
+			}
+			
+			if(expandable[non] == 2)
+				return false;
+		}
+		
+		return true;
+	}
+	
+	//Makes a state here with the kernel of a state of the previous DFA
+	private State translate(State old)
+	{
+		State state = new State();
+		for(State.Production p: old.productions)
+			state.addProduction(state.new Production(grammar.getProduction(rulemap[p.getRuleNumber()]), p.dot, p.lookahead));
+		
+		Collections.sort(state.productions);
+		return state;
+	}
+	
+	//The gotos of a state of the previous DFA, as partition would work them out here
+	private LinkedHashMap<Integer, State> reuseGotos(State old)
+	{
+		LinkedHashMap<Integer, State> gotos = new LinkedHashMap<Integer, State>();
+		for(State.Link link: old.links)
+			gotos.put(symbolmap[link.transition], translate(link.ptr));
+		
+		reusedstates.incrementAndGet();
+		return gotos;
+	}
+	
+	/*
+	 * Generates new states based on transitions of productions in current state
+	 * New states are numbered and added to the worklist to be expanded later
+	 */
+	private void generateNextStates(State state, ArrayDeque<State> worklist)
+	{
+		state.queued = false;
+		LinkedHashMap<Integer, State> gotos = partition(state);
+		
+		for(Map.Entry<Integer, State> go: gotos.entrySet())
+		{
+			int transsym = go.getKey();
+			State newstate = go.getValue();
+			
+			//a state that is expanded again already has its links
+			State.Link oldlink = state.getLink(transsym);
+			State oldstate = oldlink == null ? null : oldlink.ptr;
+			
+			if(oldstate == null)
+			{
+				//if the state already exists, find the old state and link to that
+				Kernel kernel = new Kernel(newstate, mode == Mode.CANONICAL);
+				oldstate = findState(kernel, newstate);
 				
-				else
+				if(oldstate == null)
 				{
-					//newstate.setNumber(statecount++);		//used for the dfs numbering of states
+					markReduceState(newstate);
+					
 					State.Link link = state.new Link(newstate, transsym);
 					state.addLink(link);
-					states.add(newstate);
+					addState(newstate);
+					putState(kernel, newstate);
 					
-					generateNextStates(newstate, symbols);
+					worklist.add(newstate);
+					newstate.queued = true;
+					continue;
 				}
+				
+				State.Link link = state.new Link(oldstate, transsym);
+				state.addLink(link);
+			}
+			
+			//canonical states are only found when their lookaheads match, and SLR has none, so there is nothing to merge
+			if((mode == Mode.LALR || mode == Mode.PAGER) && mergeState(oldstate, newstate) && !oldstate.queued)
+			{
+				worklist.add(oldstate);
+				oldstate.queued = true;
 			}
 		}
 	}
-
-	//Numbers the states in a bfs manner
-	private void numberStates(State state)
+	
+	private void putState(Kernel kernel, State state)
 	{
-		state.number = statecount++;
+		ArrayList<State> list = statemap.get(kernel);
+		if(list == null)
+		{
+			list = new ArrayList<State>(1);
+			statemap.put(kernel, list);
+		}
 		
-		for(State.Link link: state.getAllLinks())
+		list.add(state);
+	}
+	
+	/*
+	 * Finds the state a new kernel should go to, or null if it needs a new state
+	 * The key already tells canonical LR(1), LALR and SLR which state to use,
+	 * Pager's method takes the first state with the same core that is weakly compatible
+	 */
+	private State findState(Kernel kernel, State newstate)
+	{
+		ArrayList<State> list = statemap.get(kernel);
+		if(list == null)
+			return null;
+		
+		if(mode != Mode.PAGER)
+			return list.get(0);
+		
+		for(State state: list)
 		{
-			if(link.ptr != null && link.ptr.number == -1)
-				numberStates(link.ptr);
+			if(weaklyCompatible(state, newstate))
+				return state;
 		}
+		
+		return null;
 	}
 	
-	private void printStateInfo(State state, boolean[] done)
+	/*
+	 * Pager's weak compatibility test between a state and a kernel with the same core
+	 * For every two kernel productions i and j, merging is allowed if it cannot make
+	 * the lookaheads of i and j meet, or if they already met in one of the two
+	 */
+	private boolean weaklyCompatible(State state, State kernel)
 	{
-		if(done[state.number])
-			return;
+		State.Production[] prods = state.getKernel();
+		BitSet[] old = new BitSet[prods.length];
+		BitSet[] incoming = new BitSet[prods.length];
 		
-		done[state.number] = true;
+		for(int i=0; i<prods.length; i++)
+		{
+			old[i] = prods[i].lookahead;
+			incoming[i] = kernel.getKernelProduction(prods[i]).lookahead;
+		}
 		
+		for(int i=0; i<prods.length; i++)
+		{
+			for(int j=i+1; j<prods.length; j++)
+			{
+				if(!old[i].intersects(incoming[j]) && !incoming[i].intersects(old[j]))
+					continue;
+				
+				if(old[i].intersects(old[j]) || incoming[i].intersects(incoming[j]))
+					continue;
+				
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/*
+	 * Merges the lookaheads of a kernel into a state with the same core
+	 * Returns true if the state changed, in which case it has to be
+	 * expanded again to pass the lookaheads on
+	 */
+	private boolean mergeState(State state, State kernel)
+	{
+		findMergeConflicts(state, kernel);
+		
+		boolean changed = false;
+		for(State.Production p: kernel.getKernel())
+		{
+			if(state.getKernelProduction(p).addLookahead(p.lookahead))
+				changed = true;
+		}
+		
+		return changed;
+	}
+	
+	/*
+	 * Finds reduce/reduce conflicts that merging a kernel into a state would create,
+	 * that is, a lookahead that two reductions share only after the merge.
+	 * Both have the same core, so their reductions are the same productions
+	 */
+	private void findMergeConflicts(State state, State kernel)
+	{
+		State.Production[] prods = state.getReductions();
+		State.Production[] incoming = kernel.getReductions();
+		
+		for(int i=0; i<prods.length; i++)
+		{
+			for(int j=i+1; j<prods.length; j++)
+			{
+				BitSet oldi = prods[i].lookahead, oldj = prods[j].lookahead;
+				BitSet newi = incoming[i].lookahead;
+				BitSet newj = incoming[j].lookahead;
+				
+				BitSet merged = (BitSet) oldi.clone();
+				merged.or(newi);
+				BitSet other = (BitSet) oldj.clone();
+				other.or(newj);
+				merged.and(other);
+				
+				if(merged.isEmpty())
+					continue;
+				
+				//remove the conflicts each side already had before the merge
+				for(int k = merged.nextSetBit(0); k >= 0; k = merged.nextSetBit(k + 1))
+				{
+					if((oldi.get(k) && oldj.get(k)) || (newi.get(k) && newj.get(k)))
+						merged.clear(k);
+				}
+				
+				if(!merged.isEmpty())
+				{
+					String conflict = "State "+state.number+": "+prods[i].getCoreString()+" and "+prods[j].getCoreString()+
+							" on "+grammar.getSymbols().toString(merged);
+					if(!mergeconflicts.contains(conflict))
+						mergeconflicts.add(conflict);
+				}
+			}
+		}
+	}
+
+	private void printStateInfo(State state)
+	{
 		output.append("\nState "+state.number+"\n");
 		System.out.println("\nState "+state.number);
 		
@@ -460,26 +1183,29 @@ public class DFA
 		
 		for(State.Link link: state.getAllLinks())
 		{
-			if(link.ptr != null)		//is it really necessary? Prediction: link.ptr will never be null
-			{
-				output.append("Goes to "+link.ptr.number+" on "+link.transition+"\n");
-				System.out.println("Goes to "+link.ptr.number+" on "+link.transition);
-			}
-		}
-		
-		for(State.Link link: state.getAllLinks())
-		{
-			if(link.ptr != null)
-				printStateInfo(link.ptr, done);
+			String transition = grammar.getSymbols().getName(link.transition);
+			output.append("Goes to "+link.ptr.number+" on "+transition+"\n");
+			System.out.println("Goes to "+link.ptr.number+" on "+transition);
 		}
 	}
 	
+	//Prints the states in order of their numbers
 	public StringBuffer printDFA()
 	{
-		boolean[] done = new boolean[statecount];
-		
 		output = new StringBuffer();
-		printStateInfo(initial, done);
+		for(State state: states)
+			printStateInfo(state);
+		
+		if(!mergeconflicts.isEmpty())
+		{
+			output.append("\nWARNING: merging states introduced reduce/reduce conflicts:\n");
+			System.out.println("\nWARNING: merging states introduced reduce/reduce conflicts:");
+			for(String conflict: mergeconflicts)
+			{
+				output.append(conflict+"\n");
+				System.out.println(conflict);
+			}
+		}
 		
 		return output;
 	}
@@ -1,9 +1,11 @@
 import java.awt.EventQueue;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.StringReader;
 
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JScrollPane;
@@ -24,11 +26,13 @@ public class GUI
 	private JButton btnDisplayFirstSets;
 	private JButton btnDisplayDfa;
 	private JButton btnParseTable;
+	private JButton btnCompareModes;
 	
 	private JScrollPane scrollPane;
 	
+	private JComboBox<DFA.Mode> comboMode;
+	
 	
-	private Alphabet alphabet;
 	private Grammar grammar;
 	private DFA dfa;
 	private Table table;
@@ -64,60 +68,39 @@ public class GUI
 		initialize();
 	}
 	
-	private void initStuff()
+	private boolean initStuff()
 	{
-		initAlphabet();
-		initGrammar();
+		if(!initGrammar())
+			return false;
 		initDFA();
 		initTable();
 		initParser();
+		return true;
 	}
 	
-	public void initAlphabet()
+	/*
+	 * Reads the alphabet and the productions from the text areas
+	 * On a malformed line, shows the error in the output area and returns false
+	 */
+	private boolean initGrammar()
 	{
-		alphabet = new Alphabet();
-		
-		String symbols = textareaInputAlphabet.getText();
-		
-		String symbol = "";
-		for(int i=0; i<symbols.length(); i++)
+		try
 		{
-			if(symbols.charAt(i) != '\n')
-				symbol += symbols.charAt(i);
-			else
-			{
-				alphabet.add(new String(symbol));
-				symbol = "";
-			}
+			grammar = GrammarReader.read(new StringReader(textareaInputAlphabet.getText()),
+					new StringReader(textareaInputProductions.getText()));
 		}
-		alphabet.add(symbol);
-	}
-	
-	private void initGrammar()
-	{
-		ArrayList<String> prods = new ArrayList<String>();
-		
-		String input = textareaInputProductions.getText();
-		String prod = "";
-		
-		for(int i=0; i<input.length(); i++)
+		catch(IOException e)
 		{
-			if(input.charAt(i) != '\n')
-				prod += input.charAt(i);
-			else
-			{
-				prods.add(new String(prod));
-				prod = "";
-			}
+			textareaOutput.setText(e.getMessage());
+			return false;
 		}
-		prods.add(prod);
-		
-		grammar = new Grammar(alphabet, prods.toArray(new String[prods.size()]));
+		return true;
 	}
 	
 	private void initDFA()
 	{
-		dfa = new DFA(grammar);
+		//the previous DFA lets an edit of a few productions reuse the states it does not touch
+		dfa = new DFA(grammar, (DFA.Mode) comboMode.getSelectedItem(), dfa);
 	}
 	
 	private void initTable()
@@ -144,7 +127,8 @@ public class GUI
 		
 		
 		String instructions = "<html><body><u>Rules for use:</u><br>1. Grammar must be augmented<br>" +
-				"2. First production must be the augmented production<br></body></html>";
+				"2. First production must be the augmented production<br>" +
+				"3. An empty production is written as A-><br></body></html>";
 		
 		JLabel labelInstructions = new JLabel(instructions);
 		labelInstructions.setBounds(12, 0, 303, 90);
@@ -160,7 +144,7 @@ public class GUI
 		btnParse.setBounds(450, 59, 228, 26);
 		frmLrParserGenerator.getContentPane().add(btnParse);
 		
-		btnDisplayFirstSets = new JButton("Display first sets");
+		btnDisplayFirstSets = new JButton("Display first and follow sets");
 		btnDisplayFirstSets.setBounds(450, 32, 228, 26);
 		frmLrParserGenerator.getContentPane().add(btnDisplayFirstSets);
 		
@@ -195,11 +179,24 @@ public class GUI
 		btnParseTable.setBounds(450, 86, 228, 26);
 		frmLrParserGenerator.getContentPane().add(btnParseTable);
 		
+		JLabel labelMode = new JLabel("Construction:");
+		labelMode.setBounds(320, 32, 120, 26);
+		frmLrParserGenerator.getContentPane().add(labelMode);
+		
+		comboMode = new JComboBox<DFA.Mode>(DFA.Mode.values());
+		comboMode.setBounds(320, 59, 120, 26);
+		frmLrParserGenerator.getContentPane().add(comboMode);
+		
+		btnCompareModes = new JButton("Compare");
+		btnCompareModes.setBounds(320, 4, 120, 26);
+		frmLrParserGenerator.getContentPane().add(btnCompareModes);
+		
 		setDisplayDFAListener();
 		setDisplayFirstSetsListener();
 		setDisplayParseTableListener();
 		setParseListener();
 		setDisplayParseTableListener();
+		setCompareModesListener();
 	}
 	
 	private void setDisplayDFAListener()
@@ -209,7 +206,8 @@ public class GUI
 							@Override
 							public void actionPerformed(ActionEvent event) 
 							{
-								initStuff();
+								if(!initStuff())
+									return;
 								textareaOutput.setText(dfa.printDFA().toString());
 							}
 						});
@@ -222,8 +220,9 @@ public class GUI
 							@Override
 							public void actionPerformed(ActionEvent event) 
 							{
-								initStuff();
-								textareaOutput.setText(grammar.printFirstSets().toString());
+								if(!initStuff())
+									return;
+								textareaOutput.setText("FIRST SETS\n" + grammar.printFirstSets() + "\nFOLLOW SETS\n" + grammar.printFollowSets());
 							}
 						});
 	}
@@ -235,7 +234,8 @@ public class GUI
 			@Override
 			public void actionPerformed(ActionEvent event) 
 			{
-				initStuff();
+				if(!initStuff())
+					return;
 				textareaOutput.setText(table.printTable().toString());
 			}
 		});
@@ -248,9 +248,24 @@ public class GUI
 							@Override
 							public void actionPerformed(ActionEvent event) 
 							{
-								initStuff();
+								if(!initStuff())
+									return;
 								textareaOutput.setText(parser.parse(textParse.getText()).toString());
 							}
 						});
 	}
+	
+	private void setCompareModesListener()
+	{
+		btnCompareModes.addActionListener(new ActionListener()
+						{
+							@Override
+							public void actionPerformed(ActionEvent event) 
+							{
+								if(!initStuff())
+									return;
+								textareaOutput.setText(Table.compareModes(grammar).toString());
+							}
+						});
+	}
 }
\ No newline at end of file
@@ -1,14 +1,15 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
 
 /**
  * 
  * A class that represents a formal grammar. Important functions:
  * 1. Parses the strings of productions and converts them to Production objects
- * 2. Maintains which symbols are non-terminals
+ * 2. Gives every symbol an integer id through a SymbolTable
  * 3. Has important get methods used by various other classes
  * 
  * 
@@ -24,34 +25,41 @@ public class Grammar implements Iterable<Grammar.Production>
 	{
 		String lhs;
 		String stringrhs;
-		ArrayList<String> arrayrhs;
+		int lhsid;
+		int[] rhs;
 		int rulenumber;
 		
-		public Production(String production)
+		//Creates a production from the id of its lhs and its rhs as written
+		public Production(int lhsid, String stringrhs)
 		{
-			String[] temp = production.split("->");
-			lhs = temp[0];
-			stringrhs = temp[1];
-			arrayrhs = new ArrayList<String>();
+			this.lhsid = lhsid;
+			this.lhs = symbols.getName(lhsid);
+			this.stringrhs = stringrhs;
 			rulenumber = productioncount++;
 			
-			String r;
+			ArrayList<Integer> arrayrhs = new ArrayList<Integer>();
 			
-			//Parsing the rhs to store each element in the ArrayList
-			for(int i=0; i<stringrhs.length(); i++)
+			/*Parsing the rhs to store the id of each element, always taking the longest symbol
+			 * The end marker is not in the trie, it is implied by the lookahead of the start production,
+			 * so it is skipped like any other character that does not begin a symbol
+			 */
+			int i = 0;
+			while(i < stringrhs.length())
 			{
-				r = "";
-				for(int j=i; j<stringrhs.length(); j++)
+				int id = rhstrie.longestMatch(stringrhs, i);
+				if(id == -1)
 				{
-					r = r + stringrhs.charAt(j);
-					if(alphabet.contains(r) || nonterminals.contains(r))
-					{
-						arrayrhs.add(new String(r));
-						i += r.length() - 1;
-						break;
-					}
+					i++;
+					continue;
 				}
+				
+				arrayrhs.add(id);
+				i += symbols.getName(id).length();
 			}
+			
+			rhs = new int[arrayrhs.size()];
+			for(int j=0; j<rhs.length; j++)
+				rhs[j] = arrayrhs.get(j);
 		}
 		
 		/*Creates a production from a given production
@@ -61,7 +69,8 @@ public class Grammar implements Iterable<Grammar.Production>
 		{
 			this.lhs = production.lhs;
 			this.stringrhs = production.stringrhs;
-			this.arrayrhs = production.arrayrhs;
+			this.lhsid = production.lhsid;
+			this.rhs = production.rhs;
 			this.rulenumber = production.rulenumber;
 		}
 		
@@ -70,6 +79,11 @@ public class Grammar implements Iterable<Grammar.Production>
 			return lhs;
 		}
 		
+		public int getLHSId()
+		{
+			return lhsid;
+		}
+		
 		public String getRHSAsString()
 		{
 			return stringrhs;
@@ -77,15 +91,25 @@ public class Grammar implements Iterable<Grammar.Production>
 		
 		public String[] getRHSAsStringArray()
 		{
-			String[] r = new String[arrayrhs.size()];
+			String[] r = new String[rhs.length];
 			
-			int i = 0;
-			for(String s: arrayrhs)
-				r[i++] = s;
+			for(int i=0; i<rhs.length; i++)
+				r[i] = symbols.getName(rhs[i]);
 			
 			return r;
 		}
 		
+		//The ids of the rhs symbols. The array is shared, do not modify it
+		public int[] getRHS()
+		{
+			return rhs;
+		}
+		
+		public int length()
+		{
+			return rhs.length;
+		}
+		
 		public int getRuleNumber()
 		{
 			return rulenumber;
@@ -98,48 +122,269 @@ public class Grammar implements Iterable<Grammar.Production>
 		}
 	}
 	
+	/**
+	 * 
+	 * The closure of a single non-terminal, worked out once per grammar
+	 * Expanding a non-terminal A adds the productions of every non-terminal that
+	 * A can begin with. The productions of nonterminals[i] get lookaheads[i], which
+	 * come from inside the closure, and also the lookahead of the production that
+	 * expanded A if propagates[i] is true.
+	 * 
+	 * All fields are final and never change after construction, so a template can be
+	 * shared between threads without locking.
+	 */
+	public class ClosureTemplate
+	{
+		final int[] nonterminals;
+		final BitSet[] lookaheads;
+		final boolean[] propagates;
+		
+		public ClosureTemplate(int nonterminal)
+		{
+			ArrayList<Integer> nons = new ArrayList<Integer>();
+			ArrayList<BitSet> looks = new ArrayList<BitSet>();
+			ArrayList<Boolean> props = new ArrayList<Boolean>();
+			HashMap<Integer, Integer> index = new HashMap<Integer, Integer>();
+			
+			nons.add(nonterminal);
+			looks.add(new BitSet());
+			props.add(true);
+			index.put(nonterminal, 0);
+			
+			//A non-terminal goes back in the worklist every time what it passes on grows
+			ArrayDeque<Integer> worklist = new ArrayDeque<Integer>();
+			worklist.add(0);
+			
+			while(!worklist.isEmpty())
+			{
+				int i = worklist.poll();
+				
+				for(Production prod: getProductionsWithLHS(nons.get(i)))
+				{
+					int[] rhs = prod.getRHS();
+					if(rhs.length == 0 || !isNonTerminal(rhs[0]))
+						continue;
+					
+					Integer j = index.get(rhs[0]);
+					boolean changed = false;
+					if(j == null)
+					{
+						j = nons.size();
+						nons.add(rhs[0]);
+						looks.add(new BitSet());
+						props.add(false);
+						index.put(rhs[0], j);
+						changed = true;
+					}
+					
+					//The rest of the rhs decides the lookahead, and if it is nullable, so does the lookahead of the parent
+					BitSet lookahead = looks.get(j);
+					int before = lookahead.cardinality();
+					if(addFirstOfSequence(rhs, 1, lookahead))
+					{
+						lookahead.or(looks.get(i));
+						if(props.get(i) && !props.get(j))
+						{
+							props.set(j, true);
+							changed = true;
+						}
+					}
+					
+					if(changed || lookahead.cardinality() != before)
+						worklist.add(j);
+				}
+			}
+			
+			nonterminals = new int[nons.size()];
+			lookaheads = new BitSet[nons.size()];
+			propagates = new boolean[nons.size()];
+			for(int i=0; i<nonterminals.length; i++)
+			{
+				nonterminals[i] = nons.get(i);
+				lookaheads[i] = looks.get(i);
+				propagates[i] = props.get(i);
+			}
+		}
+		
+		public int size()
+		{
+			return nonterminals.length;
+		}
+		
+		public int getNonTerminal(int i)
+		{
+			return nonterminals[i];
+		}
+		
+		//Shared, do not modify
+		public BitSet getLookahead(int i)
+		{
+			return lookaheads[i];
+		}
+		
+		public boolean propagates(int i)
+		{
+			return propagates[i];
+		}
+	}
+	
 	private Alphabet alphabet;
+	private SymbolTable symbols;
 	private int productioncount;
 	private ArrayList<Production> productions;
-	private Set<String> nonterminals;
+	private SymbolTrie rhstrie;		//every symbol but the end marker, used to split the rhs of productions
+	private Precedence precedence;	//used by the table, not by the grammar itself
 	StringBuffer output;
 	
-	private HashMap<String, HashSet<String>> firstmap;
+	//Indexes built once the productions are read, so the accessors need not search or allocate
+	private Production[] byrule;
+	private Production[][] bylhs;	//indexed by symbol id, empty for terminals
+	private int[] allnonterminals;
+	private int[] allsymbols;
+	
+	/*
+	 * First sets as bitsets of terminal ids, indexed by symbol id
+	 * The first set of a terminal is just the terminal itself
+	 */
+	private BitSet[] firstsets;
+	private boolean[] nullable;	//indexed by symbol id
+	private boolean[] productive;	//indexed by symbol id
+	private BitSet[] followsets;	//indexed by symbol id, empty for terminals
+	private boolean hasemptyproductions;
+	
+	//Closure templates, indexed by symbol id and made when first asked for
+	private ClosureTemplate[] templates;
 	
 	public Grammar(Alphabet alphabet, String[] productions)
+	{
+		this(alphabet, productions, null);
+	}
+	
+	/*
+	 * Creates a grammar from an edited copy of the productions of a previous grammar,
+	 * over the same alphabet. The nullability and first sets of the non-terminals the
+	 * edit cannot affect are copied from the previous grammar instead of worked out again
+	 * The precedence declarations are kept as well
+	 */
+	public Grammar(Grammar previous, String[] productions)
+	{
+		this(previous.alphabet, productions, previous);
+		precedence = previous.precedence;
+	}
+	
+	private Grammar(Alphabet alphabet, String[] productions, Grammar previous)
 	{
 		this.alphabet = alphabet;
-		nonterminals = new HashSet<String>();
+		symbols = new SymbolTable(alphabet);
 		this.productions = new ArrayList<Production>();
+		precedence = new Precedence();
 		
 		//find all nonterminals
+		ArrayList<Integer> lhs = new ArrayList<Integer>();
+		ArrayList<String> rhs = new ArrayList<String>();
 		for(String prod: productions)
-			nonterminals.add(prod.split("->")[0]);
+		{
+			String[] temp = prod.split("->", -1);	//keeps the empty rhs of A->
+			lhs.add(symbols.addNonTerminal(temp[0]));
+			rhs.add(temp[1]);
+		}
+		
+		createProductions(lhs, rhs, previous);
+	}
+	
+	/*
+	 * Creates a grammar from productions that are already split into the id of
+	 * their lhs and their rhs as written. Every lhs must already be a non-terminal
+	 * of the symbol table. Used by GrammarReader, which interns symbols as it reads
+	 */
+	public Grammar(Alphabet alphabet, SymbolTable symbols, List<Integer> lhs, List<String> rhs)
+	{
+		this.alphabet = alphabet;
+		this.symbols = symbols;
+		this.productions = new ArrayList<Production>();
+		precedence = new Precedence();
+		
+		createProductions(lhs, rhs, null);
+	}
+	
+	private void createProductions(List<Integer> lhs, List<String> rhs, Grammar previous)
+	{
+		rhstrie = new SymbolTrie();
+		for(int i=0; i<symbols.size(); i++)
+		{
+			if(i != symbols.getEndMarker())
+				rhstrie.add(symbols.getName(i), i);
+		}
 		
 		//create productions
-		for(String prod: productions)
-			this.productions.add(new Production(prod));
+		for(int i=0; i<lhs.size(); i++)
+		{
+			Production production = new Production(lhs.get(i), rhs.get(i));
+			this.productions.add(production);
+			if(production.length() == 0)
+				hasemptyproductions = true;
+		}
+		
+		buildIndexes();
 		
-		firstmap = new HashMap<String, HashSet<String>>();
+		nullable = new boolean[symbols.size()];
+		firstsets = new BitSet[symbols.size()];
 		
 		//for every non terminals, create an empty first set
-		for(String non: nonterminals)
+		for(int i=0; i<symbols.size(); i++)
 		{
-			HashSet<String> firstset = new HashSet<String>();
-			firstmap.put(non, firstset);
+			firstsets[i] = new BitSet(symbols.terminalCount());
+			if(symbols.isTerminal(i))
+				firstsets[i].set(i);
 		}
 		
-		computeFirsts();
+		if(previous == null)
+			computeFirsts(null);
+		else
+			computeFirsts(findAffectedNonTerminals(previous), previous);
+		computeFollows();
+		computeProductive();
+		
+		templates = new ClosureTemplate[symbols.size()];
 	}
 	
-	private void addFirstSet(String symbol, HashSet<String> set)
+	private void buildIndexes()
 	{
-		firstmap.get(symbol).addAll(set);
+		byrule = productions.toArray(new Production[productions.size()]);
+		
+		int[] counts = new int[symbols.size()];
+		for(Production prod: productions)
+			counts[prod.getLHSId()]++;
+		
+		bylhs = new Production[symbols.size()][];
+		for(int i=0; i<symbols.size(); i++)
+			bylhs[i] = new Production[counts[i]];
+		
+		int[] filled = new int[symbols.size()];
+		for(Production prod: productions)
+			bylhs[prod.getLHSId()][filled[prod.getLHSId()]++] = prod;
+		
+		allnonterminals = new int[symbols.nonTerminalCount()];
+		for(int i=0; i<allnonterminals.length; i++)
+			allnonterminals[i] = symbols.getEndMarker() + 1 + i;
+		
+		allsymbols = new int[symbols.size() - 1];
+		int i = 0;
+		for(int s=0; s<symbols.size(); s++)
+		{
+			if(s != symbols.getEndMarker())
+				allsymbols[i++] = s;
+		}
 	}
 	
-	private void addFirstSymbol(String symbol, String firstelement)
+	private void addFirstSet(int symbol, BitSet set)
 	{
-		firstmap.get(symbol).add(firstelement);
+		firstsets[symbol].or(set);
+	}
+	
+	private void addFirstSymbol(int symbol, int firstelement)
+	{
+		firstsets[symbol].set(firstelement);
 	}
 	
 	
@@ -148,20 +393,36 @@ public class Grammar implements Iterable<Grammar.Production>
 		return productioncount;
 	}
 	
-	public boolean isNonTerminal(String string)
+	public boolean isNonTerminal(int symbol)
+	{
+		return symbols.isNonTerminal(symbol);
+	}
+	
+	//A non-terminal is nullable if it can derive the empty string
+	public boolean isNullable(int symbol)
+	{
+		return nullable[symbol];
+	}
+	
+	//A symbol is productive if it can derive a string of terminals. Every terminal is
+	public boolean isProductive(int symbol)
+	{
+		return productive[symbol];
+	}
+	
+	//True if some production has an empty rhs, written as A->
+	public boolean hasEmptyProductions()
 	{
-		return nonterminals.contains(string);
+		return hasemptyproductions;
 	}
 	
+	//Rules are numbered in the order the productions were given, so the rule is an index
 	public Production getProduction(int rule)
 	{
-		for(Production p: productions)
-		{
-			if(p.getRuleNumber() == rule)
-				return p;
-		}
+		if(rule < 0 || rule >= byrule.length)
+			return null;
 		
-		return null;
+		return byrule[rule];
 	}
 	
 	public Alphabet getAlphabet()
@@ -169,170 +430,467 @@ public class Grammar implements Iterable<Grammar.Production>
 		return alphabet;
 	}
 	
-	public String[] getAllNonTerminals()
+	public Precedence getPrecedence()
 	{
-		String[] nons = new String[nonterminals.size()];
-		
-		int i = 0;
-		for(String s: nonterminals)
-			nons[i++] = s;
-		
-		return nons;
+		return precedence;
 	}
 	
-	//Used by the DFA to expand a production
-	public Production[] getProductionsWithLHS(String lhs)
+	//Sets the declarations the table uses to settle shift/reduce conflicts
+	public void setPrecedence(Precedence precedence)
 	{
-		int count = 0;
-		for(Production prod: productions)
-			if(prod.getLHS().equals(lhs))
-				count++;
-		
-		Production[] prods = new Production[count];
-		
-		int i = 0;
-		for(Production prod: productions)
-			if(prod.getLHS().equals(lhs))
-				prods[i++] = prod;
-		
-		return prods;
+		this.precedence = precedence;
 	}
 	
-	public String[] getAllSymbols()
+	public SymbolTable getSymbols()
 	{
-		String[] ans = new String[nonterminals.size() + alphabet.size()];
-		
-		int i = 0;
-		for(String s: nonterminals)
-			ans[i++] = s;
-		
-		for(String s: alphabet)
-			ans[i++] = s;
-		
-		return ans;
+		return symbols;
 	}
 	
+	//The array is shared, do not modify it
+	public int[] getAllNonTerminals()
+	{
+		return allnonterminals;
+	}
+	
+	//Used by the DFA to expand a production. The array is shared, do not modify it
+	public Production[] getProductionsWithLHS(int lhs)
+	{
+		return bylhs[lhs];
+	}
+	
+	//Ids of all the terminals and non-terminals, without the end marker. The array is shared, do not modify it
+	public int[] getAllSymbols()
+	{
+		return allsymbols;
+	}
+	
+	//In order of rule number. The array is shared, do not modify it
 	public Production[] getAllProductions()
 	{
-		return productions.toArray(new Production[productions.size()]);
+		return byrule;
 	}
 	
-	public HashSet<String> getFirstSet(String nonterminal)
+	//Works for terminals as well. The set is shared, do not modify it
+	public BitSet getFirstSet(int symbol)
 	{
-		if(nonterminal == null)
+		if(symbol < 0)
 			return null;
 		
-		return firstmap.get(nonterminal);
+		return firstsets[symbol];
 	}
 	
 	/*
-	 * Very important function
-	 * Sorts the productions so that calculating the first sets becomes easy
-	 * Order of productions:
-	 * 1. Productions that have a terminal at the beginning of the rhs
-	 * 2. Other productions of the above non-terminals (which have non-terminals
-	 * 		 at beginning of rhs)
-	 * 3. Every other production which has the above non-terminals at beginning of rhs   
+	 * Returns the closure template of a non-terminal
+	 * Two threads asking at once may both make the template, which is harmless
+	 * since the templates are equal and cannot be seen half made
 	 */
-	private ArrayList<Production> getSortedProductions()
+	public ClosureTemplate getClosureTemplate(int nonterminal)
 	{
-		ArrayList<Production> sorted = new ArrayList<Production>();
+		ClosureTemplate template = templates[nonterminal];
+		if(template == null)
+		{
+			template = new ClosureTemplate(nonterminal);
+			templates[nonterminal] = template;
+		}
 		
-		HashSet<String> lhs = new HashSet<String>();
+		return template;
+	}
+	
+	/*
+	 * Computes which non-terminals are nullable, in time linear in the size of the grammar
+	 * Every production counts the symbols of its rhs that are not known to be nullable yet.
+	 * When a symbol becomes nullable, the count of every production it appears in goes
+	 * down, and a production whose count reaches zero makes its lhs nullable
+	 * If affected is not null, only the productions of the affected non-terminals are
+	 * looked at, and the others must already be known
+	 */
+	private void computeNullable(boolean[] affected)
+	{
+		int[] remaining = new int[productions.size()];
+		ArrayList<ArrayList<Production>> occurrences = new ArrayList<ArrayList<Production>>();
+		for(int i=0; i<symbols.size(); i++)
+			occurrences.add(new ArrayList<Production>());
+		
+		ArrayDeque<Integer> worklist = new ArrayDeque<Integer>();
 		
-		//Finds productions with terminals at beginning of rhs
 		for(Production prod: productions)
 		{
-			String[] rhs = prod.getRHSAsStringArray();
+			if(affected != null && !affected[prod.getLHSId()])
+				continue;
 			
-			if(alphabet.contains(rhs[0]))
+			for(int symbol: prod.getRHS())
 			{
-				lhs.add(prod.getLHS());
-				sorted.add(prod);
+				if(!nullable[symbol])
+				{
+					remaining[prod.getRuleNumber()]++;
+					occurrences.get(symbol).add(prod);
+				}
 			}
 			
+			if(remaining[prod.getRuleNumber()] == 0 && !nullable[prod.getLHSId()])
+			{
+				nullable[prod.getLHSId()] = true;
+				worklist.add(prod.getLHSId());
+			}
+		}
+		
+		while(!worklist.isEmpty())
+		{
+			for(Production prod: occurrences.get(worklist.poll()))
+			{
+				if(--remaining[prod.getRuleNumber()] == 0 && !nullable[prod.getLHSId()])
+				{
+					nullable[prod.getLHSId()] = true;
+					worklist.add(prod.getLHSId());
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Computes which non-terminals are productive the same way as computeNullable, with terminals
+	 * counted as productive from the start. It is linear, so it is always worked out for the
+	 * whole grammar and never copied from a previous one
+	 */
+	private void computeProductive()
+	{
+		productive = new boolean[symbols.size()];
+		int[] remaining = new int[productions.size()];
+		ArrayList<ArrayList<Production>> occurrences = new ArrayList<ArrayList<Production>>();
+		for(int i=0; i<symbols.size(); i++)
+		{
+			occurrences.add(new ArrayList<Production>());
+			productive[i] = symbols.isTerminal(i);
 		}
 		
-		ArrayList<Production> newsorted = new ArrayList<Production>(sorted);
+		ArrayDeque<Integer> worklist = new ArrayDeque<Integer>();
 		
-		//Finds productions of the above non-terminals
 		for(Production prod: productions)
 		{
-			if(!sorted.contains(prod))
+			for(int symbol: prod.getRHS())
 			{
-				String anlhs = prod.getLHS();
-				for(Production sortedprod: sorted)
+				if(!productive[symbol])
 				{
-					String sortedlhs = sortedprod.getLHS();
-					if(anlhs.equals(sortedlhs))
-					{
-						newsorted.add(prod);
-						lhs.add(anlhs);
-					}
+					remaining[prod.getRuleNumber()]++;
+					occurrences.get(symbol).add(prod);
 				}
 			}
+			
+			if(remaining[prod.getRuleNumber()] == 0 && !productive[prod.getLHSId()])
+			{
+				productive[prod.getLHSId()] = true;
+				worklist.add(prod.getLHSId());
+			}
+		}
+		
+		while(!worklist.isEmpty())
+		{
+			for(Production prod: occurrences.get(worklist.poll()))
+			{
+				if(--remaining[prod.getRuleNumber()] == 0 && !productive[prod.getLHSId()])
+				{
+					productive[prod.getLHSId()] = true;
+					worklist.add(prod.getLHSId());
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Computes the first sets with a worklist, and finishes on every grammar
+	 * A production A->X1X2..Xn adds first of Xi to first of A for every Xi up to
+	 * and including the first one that is not nullable. A terminal is added directly,
+	 * and a non-terminal is remembered as a dependency of A. Whenever the first set of
+	 * a non-terminal grows, it is added again to every non-terminal that depends on it
+	 * If affected is not null, only the affected non-terminals are worked out. The first
+	 * sets of the others must already be known, and are added directly as well
+	 */
+	private void computeFirsts(boolean[] affected)
+	{
+		computeNullable(affected);
+		
+		ArrayList<ArrayList<Integer>> dependents = new ArrayList<ArrayList<Integer>>();
+		for(int i=0; i<symbols.size(); i++)
+			dependents.add(new ArrayList<Integer>());
+		
+		for(Production prod: productions)
+		{
+			int lhs = prod.getLHSId();
+			if(affected != null && !affected[lhs])
+				continue;
+			
+			for(int symbol: prod.getRHS())
+			{
+				if(isNonTerminal(symbol) && (affected == null || affected[symbol]))
+					dependents.get(symbol).add(lhs);
+				else if(isNonTerminal(symbol))
+					addFirstSet(lhs, firstsets[symbol]);
+				else
+					addFirstSymbol(lhs, symbol);
+				
+				if(!nullable[symbol])
+					break;
+			}
 		}
 		
-		sorted = newsorted;
+		ArrayDeque<Integer> worklist = new ArrayDeque<Integer>();
+		boolean[] queued = new boolean[symbols.size()];
+		for(int non: getAllNonTerminals())
+		{
+			if(!firstsets[non].isEmpty() && (affected == null || affected[non]))
+			{
+				worklist.add(non);
+				queued[non] = true;
+			}
+		}
 		
-		//Fills in the rest of the productions
-		while(sorted.size() != productions.size())
+		while(!worklist.isEmpty())
 		{
-			for(Production p: productions)
+			int symbol = worklist.poll();
+			queued[symbol] = false;
+			
+			for(int lhs: dependents.get(symbol))
 			{
-				if(!sorted.contains(p))
+				int before = firstsets[lhs].cardinality();
+				addFirstSet(lhs, firstsets[symbol]);
+				
+				if(firstsets[lhs].cardinality() != before && !queued[lhs])
 				{
-					if(lhs.contains(p.getRHSAsStringArray()[0]))
-					{
-						sorted.add(p);
-						lhs.add(p.getLHS());
-					}
+					worklist.add(lhs);
+					queued[lhs] = true;
 				}
 			}
 		}
+	}
+	
+	/*
+	 * Copies the nullability and first sets of the non-terminals that are not affected
+	 * from the previous grammar, then works out the affected ones
+	 */
+	private void computeFirsts(boolean[] affected, Grammar previous)
+	{
+		for(int non: getAllNonTerminals())
+		{
+			if(affected[non])
+				continue;
+			
+			int old = previous.symbols.getId(symbols.getName(non));
+			nullable[non] = previous.nullable[old];
+			firstsets[non].or(previous.firstsets[old]);
+		}
 		
-		return sorted;
+		computeFirsts(affected);
 	}
 	
-	//Simply add first of beginning of rhs to lhs
-	private void computeFirsts()
+	/*
+	 * Finds the non-terminals whose nullability and first set may differ from the previous grammar
+	 * These are the ones whose productions changed, and every non-terminal with a production
+	 * that uses an affected one
+	 */
+	private boolean[] findAffectedNonTerminals(Grammar previous)
 	{
-		ArrayList<Production> sortedprods = getSortedProductions();
+		ArrayList<ArrayList<Integer>> users = new ArrayList<ArrayList<Integer>>();
+		for(int i=0; i<symbols.size(); i++)
+			users.add(new ArrayList<Integer>());
 		
-		System.out.println("Sorted prods: ");
-		for(Production p: sortedprods)
-			System.out.println(p);
+		for(Production prod: productions)
+		{
+			for(int symbol: prod.getRHS())
+			{
+				if(isNonTerminal(symbol))
+					users.get(symbol).add(prod.getLHSId());
+			}
+		}
+		
+		boolean[] affected = new boolean[symbols.size()];
+		ArrayDeque<Integer> worklist = new ArrayDeque<Integer>();
+		for(int non: getAllNonTerminals())
+		{
+			int old = previous.symbols.getId(symbols.getName(non));
+			if(old == -1 || !previous.isNonTerminal(old) || !sameProductions(non, previous, old))
+			{
+				affected[non] = true;
+				worklist.add(non);
+			}
+		}
 		
-		for(Production prod: sortedprods)
+		while(!worklist.isEmpty())
 		{
-			String lhs = prod.getLHS();
-			String firstrhs = prod.getRHSAsStringArray()[0];
+			for(int user: users.get(worklist.poll()))
+			{
+				if(!affected[user])
+				{
+					affected[user] = true;
+					worklist.add(user);
+				}
+			}
+		}
+		
+		return affected;
+	}
+	
+	/*
+	 * True if a non-terminal here and one of another grammar have the same productions, in
+	 * the same order. Symbols are compared by name, since their ids may differ
+	 */
+	private boolean sameProductions(int nonterminal, Grammar other, int othernonterminal)
+	{
+		Production[] mine = bylhs[nonterminal];
+		Production[] theirs = other.bylhs[othernonterminal];
+		if(mine.length != theirs.length)
+			return false;
+		
+		for(int i=0; i<mine.length; i++)
+		{
+			if(mine[i].rhs.length != theirs[i].rhs.length)
+				return false;
 			
-			if(isNonTerminal(firstrhs))
-				addFirstSet(lhs, firstmap.get(firstrhs));
-			else
-				addFirstSymbol(lhs, firstrhs);
+			for(int j=0; j<mine[i].rhs.length; j++)
+			{
+				if(!symbols.getName(mine[i].rhs[j]).equals(other.symbols.getName(theirs[i].rhs[j])))
+					return false;
+			}
 		}
 		
-		for(Production prod: sortedprods)
+		return true;
+	}
+	
+	/*
+	 * Maps the symbols of a previous grammar over the same alphabet to their ids here
+	 * A non-terminal is only mapped if its productions, first set and nullability are all
+	 * unchanged, and is -1 otherwise. Terminals always map to themselves
+	 * Returns null if the grammars do not have the same terminals
+	 */
+	public int[] mapUnchangedSymbols(Grammar previous)
+	{
+		SymbolTable old = previous.symbols;
+		if(old.terminalCount() != symbols.terminalCount())
+			return null;
+		
+		int[] map = new int[old.size()];
+		for(int s=0; s<old.size(); s++)
 		{
-			String lhs = prod.getLHS();
-			String firstrhs = prod.getRHSAsStringArray()[0];
+			if(old.isTerminal(s))
+			{
+				if(!old.getName(s).equals(symbols.getName(s)))
+					return null;
+				map[s] = s;
+				continue;
+			}
 			
-			if(isNonTerminal(firstrhs))
-				addFirstSet(lhs, firstmap.get(firstrhs));
+			int non = symbols.getId(old.getName(s));
+			if(non == -1 || !isNonTerminal(non) || !sameProductions(non, previous, s)
+					|| nullable[non] != previous.nullable[s] || !firstsets[non].equals(previous.firstsets[s]))
+				map[s] = -1;
 			else
-				addFirstSymbol(lhs, firstrhs);
+				map[s] = non;
 		}
+		
+		return map;
+	}
+	
+	/*
+	 * Computes the follow sets with a worklist
+	 * Follow of the start symbol is the end marker. A production A->xBy adds first of y
+	 * to follow of B, and if y is nullable, B depends on A: whenever the follow set of
+	 * A grows, it is added again to the follow set of B
+	 */
+	private void computeFollows()
+	{
+		followsets = new BitSet[symbols.size()];
+		ArrayList<ArrayList<Integer>> dependents = new ArrayList<ArrayList<Integer>>();
+		for(int i=0; i<symbols.size(); i++)
+		{
+			followsets[i] = new BitSet(symbols.terminalCount());
+			dependents.add(new ArrayList<Integer>());
+		}
+		
+		if(!productions.isEmpty())
+			followsets[productions.get(0).getLHSId()].set(symbols.getEndMarker());
+		
+		for(Production prod: productions)
+		{
+			int[] rhs = prod.getRHS();
+			for(int i=0; i<rhs.length; i++)
+			{
+				if(isNonTerminal(rhs[i]) && addFirstOfSequence(rhs, i + 1, followsets[rhs[i]]))
+					dependents.get(prod.getLHSId()).add(rhs[i]);
+			}
+		}
+		
+		ArrayDeque<Integer> worklist = new ArrayDeque<Integer>();
+		boolean[] queued = new boolean[symbols.size()];
+		for(int non: getAllNonTerminals())
+		{
+			worklist.add(non);
+			queued[non] = true;
+		}
+		
+		while(!worklist.isEmpty())
+		{
+			int symbol = worklist.poll();
+			queued[symbol] = false;
+			
+			for(int dependent: dependents.get(symbol))
+			{
+				int before = followsets[dependent].cardinality();
+				followsets[dependent].or(followsets[symbol]);
+				
+				if(followsets[dependent].cardinality() != before && !queued[dependent])
+				{
+					worklist.add(dependent);
+					queued[dependent] = true;
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Adds the first set of the symbols of rhs from the given index onwards to the given set
+	 * Returns true if all of those symbols are nullable (or there are none), in which case
+	 * whatever follows the rhs can come first as well
+	 */
+	public boolean addFirstOfSequence(int[] rhs, int from, BitSet set)
+	{
+		for(int i=from; i<rhs.length; i++)
+		{
+			set.or(firstsets[rhs[i]]);
+			if(!nullable[rhs[i]])
+				return false;
+		}
+		
+		return true;
+	}
+	
+	//The set is shared, do not modify it
+	public BitSet getFollowSet(int symbol)
+	{
+		return followsets[symbol];
+	}
+	
+	public StringBuffer printFollowSets()
+	{
+		output = new StringBuffer();
+		for(int non: getAllNonTerminals())
+		{
+			String line = symbols.getName(non)+" : "+symbols.toString(followsets[non]);
+			output.append(line+"\n");
+			System.out.println(line);
+		}
+		
+		return output;
 	}
 	
 	public StringBuffer printFirstSets()
 	{
 		output = new StringBuffer();
-		for(String non: nonterminals)
+		for(int non: getAllNonTerminals())
 		{
-			output.append(non+" : "+firstmap.get(non)+"\n");
-			System.out.println(non+" : "+firstmap.get(non));
+			String line = symbols.getName(non)+" : "+symbols.toString(firstsets[non]);
+			if(nullable[non])
+				line = line + "    nullable";
+			output.append(line+"\n");
+			System.out.println(line);
 		}
 		
 		return output;
@@ -363,5 +921,8 @@ public class Grammar implements Iterable<Grammar.Production>
 		
 		System.out.println("FIRST SETS: ");
 		g.printFirstSets();
+		
+		System.out.println("FOLLOW SETS: ");
+		g.printFollowSets();
 	}
 }
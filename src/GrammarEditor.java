@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 
+ * Keeps a grammar, its DFA and its table up to date while its productions are edited
+ * Every edit builds the new grammar and DFA from the previous ones:
+ * 1. Only the non-terminals the edit can affect get their first sets worked out again
+ * 2. Only the states whose closure uses a changed non-terminal get their gotos worked out again
+ * 3. The table is filled again from the new DFA
+ * 
+ * The result is the same as building everything from scratch
+ */
+public class GrammarEditor 
+{
+	private ArrayList<String> productions;
+	private DFA.Mode mode;
+	private Grammar grammar;
+	private DFA dfa;
+	private Table table;
+	
+	public GrammarEditor(Alphabet alphabet, String[] productions, DFA.Mode mode)
+	{
+		this.productions = new ArrayList<String>(Arrays.asList(productions));
+		this.mode = mode;
+		
+		grammar = new Grammar(alphabet, productions);
+		dfa = new DFA(grammar, mode);
+		table = new Table(dfa);
+	}
+	
+	//Adds a production after the last one
+	public void addProduction(String production)
+	{
+		productions.add(production);
+		rebuild();
+	}
+	
+	//Removes the production with the given rule number. The rules after it move up by one
+	public void removeProduction(int rule)
+	{
+		productions.remove(rule);
+		rebuild();
+	}
+	
+	//Replaces the production with the given rule number
+	public void changeProduction(int rule, String production)
+	{
+		productions.set(rule, production);
+		rebuild();
+	}
+	
+	//Replaces all the productions at once, for edits that change more than one
+	public void setProductions(String[] productions)
+	{
+		this.productions = new ArrayList<String>(Arrays.asList(productions));
+		rebuild();
+	}
+	
+	private void rebuild()
+	{
+		grammar = new Grammar(grammar, productions.toArray(new String[productions.size()]));
+		dfa = new DFA(grammar, mode, dfa);
+		table = new Table(dfa);
+	}
+	
+	public Grammar getGrammar()
+	{
+		return grammar;
+	}
+	
+	public DFA getDFA()
+	{
+		return dfa;
+	}
+	
+	public Table getTable()
+	{
+		return table;
+	}
+}
@@ -0,0 +1,24 @@
+import java.io.IOException;
+
+/**
+ * 
+ * Thrown by GrammarReader when a line of the input is not a valid symbol or production
+ * Carries the number of the offending line, counting from 1
+ */
+public class GrammarFormatException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+	
+	private int line;
+	
+	public GrammarFormatException(int line, String message)
+	{
+		super("Line " + line + ": " + message);
+		this.line = line;
+	}
+	
+	public int getLineNumber()
+	{
+		return line;
+	}
+}
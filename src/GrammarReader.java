@@ -0,0 +1,228 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 
+ * Reads a grammar from text in a single buffered pass
+ * The input is the terminals, one per line, then a line containing only %%,
+ * then the productions, one per line, written as A->rhs
+ * The rhs may end with the end marker $, as in the augmented production S->P$
+ * Blank lines are ignored. The lhs of every production is interned as soon
+ * as its line is read, so only the rhs strings are kept until the grammar is built.
+ * 
+ * Among the terminals, a line %left, %right or %nonassoc followed by terminals separated
+ * by spaces declares their precedence, each line higher than the ones before it.
+ * A production can end with %prec and a declared terminal to take its precedence
+ */
+public class GrammarReader 
+{
+	public static final String SEPARATOR = "%%";
+	public static final String PREC = " %prec ";
+	
+	private GrammarReader()
+	{
+	}
+	
+	public static Grammar read(Path path) throws IOException
+	{
+		try(Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8))
+		{
+			return read(in);
+		}
+	}
+	
+	/*
+	 * Reads the alphabet and the productions from one reader, separated by a %% line
+	 */
+	public static Grammar read(Reader in) throws IOException
+	{
+		LineReader lines = new LineReader(in);
+		Precedence precedence = new Precedence();
+		Alphabet alphabet = readAlphabet(lines, precedence, true);
+		return readProductions(alphabet, precedence, lines);
+	}
+	
+	/*
+	 * Reads the alphabet and the productions from two separate readers
+	 */
+	public static Grammar read(Reader alphabetin, Reader productionsin) throws IOException
+	{
+		Precedence precedence = new Precedence();
+		Alphabet alphabet = readAlphabet(new LineReader(alphabetin), precedence, false);
+		return readProductions(alphabet, precedence, new LineReader(productionsin));
+	}
+	
+	private static Alphabet readAlphabet(LineReader lines, Precedence precedence, boolean separated) throws IOException
+	{
+		Alphabet alphabet = new Alphabet();
+		
+		String line;
+		while((line = lines.next()) != null)
+		{
+			//a symbol has no spaces around it, so the keyword check and the symbol see the same text
+			line = line.trim();
+			if(line.equals(SEPARATOR))
+			{
+				if(separated)
+					return alphabet;
+				throw new GrammarFormatException(lines.number(), "unexpected " + SEPARATOR + " in the alphabet");
+			}
+			
+			String[] words = line.split("\\s+");
+			Precedence.Associativity associativity = Precedence.Associativity.forKeyword(words[0]);
+			if(associativity != null)
+				declare(precedence, associativity, words, lines.number());
+			else
+				alphabet.add(line);
+		}
+		
+		if(separated)
+			throw new GrammarFormatException(lines.number(), "missing " + SEPARATOR + " after the alphabet");
+		return alphabet;
+	}
+	
+	private static void declare(Precedence precedence, Precedence.Associativity associativity, String[] words, int number) throws GrammarFormatException
+	{
+		if(words.length == 1)
+			throw new GrammarFormatException(number, "no terminals after " + words[0]);
+		
+		try
+		{
+			precedence.declare(associativity, Arrays.copyOfRange(words, 1, words.length));
+		}
+		catch(IllegalArgumentException e)
+		{
+			throw new GrammarFormatException(number, e.getMessage());
+		}
+	}
+	
+	private static Grammar readProductions(Alphabet alphabet, Precedence precedence, LineReader lines) throws IOException
+	{
+		SymbolTable symbols = new SymbolTable(alphabet);
+		ArrayList<Integer> lhs = new ArrayList<Integer>();
+		ArrayList<String> rhs = new ArrayList<String>();
+		ArrayList<Integer> linenumbers = new ArrayList<Integer>();
+		
+		String line;
+		while((line = lines.next()) != null)
+		{
+			String prec = null;
+			int precindex = line.lastIndexOf(PREC);
+			if(precindex >= 0)
+			{
+				prec = line.substring(precindex + PREC.length()).trim();
+				line = line.substring(0, precindex);
+			}
+			
+			int arrow = line.indexOf("->");
+			if(arrow < 0)
+				throw new GrammarFormatException(lines.number(), "missing -> in \"" + line + "\"");
+			if(arrow == 0)
+				throw new GrammarFormatException(lines.number(), "missing lhs in \"" + line + "\"");
+			
+			String name = line.substring(0, arrow);
+			try
+			{
+				lhs.add(symbols.addNonTerminal(name));
+			}
+			catch(IllegalArgumentException e)
+			{
+				throw new GrammarFormatException(lines.number(), "terminal " + name + " used as lhs");
+			}
+			rhs.add(line.substring(arrow + 2));
+			linenumbers.add(lines.number());
+			
+			if(prec != null)
+			{
+				try
+				{
+					precedence.setProductionPrecedence(line, prec);
+				}
+				catch(IllegalArgumentException e)
+				{
+					throw new GrammarFormatException(lines.number(), e.getMessage());
+				}
+			}
+		}
+		
+		if(lhs.isEmpty())
+			throw new GrammarFormatException(lines.number(), "no productions");
+		
+		Grammar grammar = new Grammar(alphabet, symbols, lhs, rhs);
+		grammar.setPrecedence(precedence);
+		
+		//the rhs can only be checked once every lhs is known
+		for(int i=0; i<lhs.size(); i++)
+		{
+			int unknown = findUnknownSymbol(symbols, grammar.getProduction(i));
+			if(unknown >= 0)
+			{
+				String text = rhs.get(i);
+				throw new GrammarFormatException(linenumbers.get(i), "unknown symbol at \"" + text.substring(unknown) + "\" in \"" + text + "\"");
+			}
+		}
+		
+		return grammar;
+	}
+	
+	/*
+	 * The rhs is split by longest match and characters that match no symbol are skipped,
+	 * so the symbols of a valid rhs spell it out exactly, apart from an end marker at the end
+	 * Returns the position of the first skipped character, or -1
+	 */
+	private static int findUnknownSymbol(SymbolTable symbols, Grammar.Production production)
+	{
+		String text = production.getRHSAsString();
+		int position = 0;
+		
+		for(int symbol: production.getRHS())
+		{
+			String name = symbols.getName(symbol);
+			if(!text.startsWith(name, position))
+				return position;
+			position += name.length();
+		}
+		
+		if(position == text.length() || text.substring(position).equals(SymbolTable.END))
+			return -1;
+		return position;
+	}
+	
+	/*
+	 * Hands out the lines of a reader one at a time, without line terminators
+	 * and skipping lines that are empty or only whitespace, while counting every line read
+	 */
+	private static class LineReader
+	{
+		private BufferedReader in;
+		private int number;
+		
+		LineReader(Reader in)
+		{
+			this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+		}
+		
+		String next() throws IOException
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				number++;
+				if(!line.trim().isEmpty())
+					return line;
+			}
+			return null;
+		}
+		
+		int number()
+		{
+			return number;
+		}
+	}
+}
@@ -1,27 +1,33 @@
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
-import java.util.Stack;
 
 /**
  * 
  * A parser that takes a table as input.
  * 
- * NOTE: A state number pushed into the stack is prepended and appended with a dot, 
- * to distinguish it from a terminal, in case the grammar has numbers as terminals
+ * The input string is first split into tokens, which are symbol ids. After that
+ * the parser only works on ids: the stack holds state numbers, and each reduce pops
+ * as many states as the production has symbols and then follows the goto of its lhs.
+ * Everything it needs is in the table, so a table loaded from a TableCache works without a DFA.
+ * States with a single reduce are reduced in without looking up the next token
  */
 
 public class Parser 
 {
 	private Table table;
-	HashMap<String, Integer> map;
-	DFA dfa;
+	SymbolTable symbols;
+	SymbolTrie trie;	//the terminals and the end marker
 	StringBuffer output;
 	
 	public Parser(Table table)
 	{
 		this.table = table;
-		dfa = table.getDFA();
-		map = table.getColumnMap();
+		symbols = table.getSymbols();
+		
+		trie = new SymbolTrie();
+		for(int i=0; i<symbols.terminalCount(); i++)
+			trie.add(symbols.getName(i), i);
 	}
 	
 	public Table getTable()
@@ -35,132 +41,100 @@ public class Parser
 		input = input + "$";
 		//System.out.println("Parsing input: "+input+" of length "+input.length());
 		
-		Stack<String> stack = new Stack<String>();
+		int[] tokens = tokenize(input);
+		if(tokens == null)
+		{
+			output.append("Input: "+input+"\nString REJECTED: Unidentified symbol");
+			System.out.println("String rejected: Unidentified symbol.");
+			return output;
+		}
 		
-		stack.push("$");
-		stack.push(".0.");
+		int[] stack = new int[16];
+		int top = 0;
+		stack[top] = 0;
 		
 		int i = 0;
-		while(i < input.length())
+		while(i < tokens.length)
 		{
-			String token = getNextToken(input, i);
-			//System.out.println("\n\nNext token is: "+token+", i is "+i);
-			if(token == null)
-			{
-				output.append("Input: "+input+"\nString REJECTED: Unidentified symbol");
-				System.out.println("String rejected: Unidentified symbol.");
-				return output;
-			}
-			
-			int row = stackStateToNum(stack.peek());
-			int column = map.get(token);
-			
-			Table.Entry entry = table.getEntry(row, column);
-			if(entry == null)
+			//a consistent state reduces whatever the next token is
+			int action = table.getConsistentReduce(stack[top]);
+			if(action == Table.EMPTY)
+				action = table.getAction(stack[top], tokens[i]);
+			if(Table.getKind(action) == Table.EMPTY)
 			{
 				output.append("Input: "+input+"\nString REJECTED: Table entry null");
 				System.out.println("String rejected: No entry in the table");
 				return output;
 			}
-			char action = entry.getEntryType();
 			
-			//System.out.println("Table value: "+action+" "+entry.getRuleNumber());
+			//System.out.println("Table value: "+Table.getKind(action)+" "+Table.getTarget(action));
 			
-			switch(action)
+			switch(Table.getKind(action))
 			{
-				case 's': int rule = entry.getRuleNumber();
-						  stack.push(token);
-						  stack.push(numToStackState(rule));
-						  
-						  //System.out.println("Stack after shifting: "+stack);
-						  break;
-						  
-				case 'r': int reducerule = entry.getRuleNumber();
-						  if(reducerule == 0)
-						  {
-							  output.append("Input: "+input+"\nString ACCEPTED");
-							  System.out.println("String accepted!");
-							  return output;
-						  }
-						  String rhs = dfa.getGrammar().getProduction(reducerule).getRHSAsString();
-						  //System.out.println("RHS is "+rhs+" for production "+dfa.getGrammar().getProduction(reducerule));
-						  String temp = "";
-						  while(true)
-						  {
-							  if(stack.isEmpty())
-							  {
-								  output.append("Input: "+input+"\nString REJECTED: Stack is empty while trying to reduce");
-								  System.out.println("String rejected: Stack is empty while trying to reduce");
-								  return output;
-							  }
-							  
-							  if(!isStackState(stack.peek()))
-								  temp = stack.pop() + temp;
-							  else
-								  stack.pop();
-							  
-							  //System.out.println("temp is now "+temp);
-							  
-							  if(temp.equals(rhs))
-							  {
-								  //find lhs of this rhs
-								  String lhs = "";
-								  for(Grammar.Production p: dfa.getGrammar())
-								  {
-									  if(p.getRHSAsString().equals(rhs))
-										  lhs = p.getLHS();
-								  }
-								  
-								  int temptop = stackStateToNum(stack.peek());
-								  stack.push(lhs);
-								  stack.push(numToStackState(table.getEntry(temptop, map.get(lhs)).getRuleNumber()));
-								  //System.out.println("Reduce "+rhs+" to "+lhs+", stack is now: "+stack);
-								  
+				case Table.SHIFT: if(++top == stack.length)
+									  stack = Arrays.copyOf(stack, stack.length * 2);
+								  stack[top] = Table.getTarget(action);
+								  i++;
 								  break;
-							  }
-						  }
-						  continue;
+						  
+				case Table.REDUCE: int reducerule = Table.getTarget(action);
+								   if(reducerule == 0)
+								   {
+									   output.append("Input: "+input+"\nString ACCEPTED");
+									   System.out.println("String accepted!");
+									   return output;
+								   }
+								   
+								   top -= table.getRuleLength(reducerule);
+								   if(top < 0)
+								   {
+									   output.append("Input: "+input+"\nString REJECTED: Stack is empty while trying to reduce");
+									   System.out.println("String rejected: Stack is empty while trying to reduce");
+									   return output;
+								   }
+								   
+								   int go = table.getGoto(stack[top], table.getRuleLHS(reducerule));
+								   if(go == -1)
+								   {
+									   output.append("Input: "+input+"\nString REJECTED: Table entry null");
+									   System.out.println("String rejected: No entry in the table");
+									   return output;
+								   }
+								   if(++top == stack.length)
+									   stack = Arrays.copyOf(stack, stack.length * 2);
+								   stack[top] = go;
+								   //System.out.println("Reduce rule "+reducerule+", stack is now: "+Arrays.toString(Arrays.copyOf(stack, top + 1)));
+								   break;
 			}
-			
-			if(!token.equals("$"))
-				i += token.length();
 		}
 		
 		return output;
 	}
 	
-	private String numToStackState(int num)
+	/*
+	 * Splits the input into the ids of its symbols, always taking the longest terminal.
+	 * The end marker is recognised as well. Returns null if some part of the input is not a terminal
+	 */
+	private int[] tokenize(String input)
 	{
-		return "." + String.valueOf(num) + ".";
-	}
-	
-	private int stackStateToNum(String state)
-	{
-		return Integer.parseInt(state.substring(1, state.length() - 1));
-	}
-	
-	private boolean isStackState(String string)
-	{
-		if(string.length() < 3)
-			return false;
+		ArrayList<Integer> tokens = new ArrayList<Integer>();
 		
-		if(string.charAt(0) == '.' && string.charAt(string.length() - 1) == '.')
-			return true;
-		else
-			return false;
-	}
-	
-	private String getNextToken(String input, int from)
-	{
-		String temp = "";
-		for(int i=from; i<input.length(); i++)
+		int i = 0;
+		while(i < input.length())
 		{
-			temp = temp + input.charAt(i);
-			if(dfa.getGrammar().getAlphabet().contains(temp) || temp.equals("$"))
-				return temp;
+			int token = trie.longestMatch(input, i);
+			if(token == -1)
+				return null;
+			
+			tokens.add(token);
+			i += symbols.getName(token).length();
 		}
 		
-		return null;
+		int[] ids = new int[tokens.size()];
+		for(int k=0; k<ids.length; k++)
+			ids[k] = tokens.get(k);
+		
+		return ids;
 	}
 	
 	public static void main(String[] args)
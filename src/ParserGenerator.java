@@ -0,0 +1,726 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * 
+ * Writes the Java source of a standalone parser for a table, so a grammar can be compiled
+ * ahead of time and parsed with no Grammar, DFA or Table at runtime
+ * 
+ * The generated class holds the packed arrays of the table as static final int arrays,
+ * with the lhs and length of every rule, and runs the same loop as Parser on them.
+ * In the DIRECT style the actions are written as code instead, and only the arrays the
+ * gotos are looked up in are kept, see Style.
+ * It only depends on java.lang and java.util.Arrays
+ * 
+ * An array initializer compiles to code, and a method cannot be longer than 64KB, so the
+ * arrays are written as string constants instead, two chars per int, and unpacked once
+ * when the class is loaded. A string constant cannot be longer than 64KB either, so each
+ * array is split into chunks that stay under that even if every char takes three bytes
+ */
+public class ParserGenerator
+{
+	private static final int CHUNK = 8000;	//ints per string constant
+	private static final int LINE = 24;		//ints per line of source
+	private static final int BUDGET = 6000;	//about how many bytes of code a run method of the DIRECT style is filled to
+	private static final int LIMIT = 60000;	//the most code one state can take, a method cannot be longer than 64KB
+	
+	/*
+	 * TABLE writes the packed arrays of the table and a loop that looks actions up in them
+	 * DIRECT writes the automaton as code. The loop switches on the state, and the case of a
+	 * state switches on the terminal and sets the next state itself, so every state knows its
+	 * own actions and none are looked up. The goto of a reduce depends on the state it pops
+	 * back to, so it is looked up in the packed arrays like TABLE does, with the lhs and its
+	 * default written in, and not looked up at all when every goto on the lhs is the default.
+	 * A method the JIT compiles must stay under 8000 bytes, so the states are split into
+	 * blocks of run methods, and a parse only leaves one when it moves to a state of another
+	 */
+	public enum Style
+	{
+		TABLE, DIRECT
+	}
+	
+	private Table table;
+	private Style style;
+	private boolean[] lookups;	//by non-terminal, whether some of its gotos are stored and the DIRECT style must look them up
+	
+	public ParserGenerator(Table table)
+	{
+		this(table, Style.TABLE);
+	}
+	
+	public ParserGenerator(Table table, Style style)
+	{
+		this.table = table;
+		this.style = style;
+	}
+	
+	/*
+	 * Returns the source of a class with the given name, in the given package,
+	 * or in no package if it is null
+	 */
+	public String generate(String packagename, String classname)
+	{
+		SymbolTable symbols = table.getSymbols();
+		int terminals = symbols.terminalCount();
+		
+		int[] rulelhs = new int[table.getRuleCount()];
+		int[] rulelength = new int[table.getRuleCount()];
+		for(int rule=0; rule<rulelhs.length; rule++)
+		{
+			rulelhs[rule] = table.getRuleLHS(rule);
+			rulelength[rule] = table.getRuleLength(rule);
+		}
+		
+		StringBuilder out = new StringBuilder();
+		if(packagename != null)
+			out.append("package ").append(packagename).append(";\n\n");
+		
+		out.append("/**\n");
+		out.append(" * Generated by ParserGenerator in the ").append(style).append(" style from a ").append(table.getMode()).append(" table with ")
+				.append(table.getRowCount()).append(" states, do not edit\n");
+		if(table.hasConflict())
+			out.append(" * The table has conflicts, the first entry of every conflict was kept\n");
+		out.append(" */\n");
+		out.append("public final class ").append(classname).append("\n{\n");
+		
+		out.append("\tpublic static final int END = ").append(symbols.getEndMarker()).append(";\t//the end marker, which every token array must end with\n");
+		out.append("\tprivate static final int TERMINALS = ").append(terminals).append(";\n\t\n");
+		
+		out.append("\t//terminal names by id, the end marker is not matched in the input\n");
+		out.append("\tprivate static final String[] NAMES = {");
+		for(int i=0; i<symbols.getEndMarker(); i++)
+		{
+			if(i > 0)
+				out.append(", ");
+			out.append('"');
+			appendEscaped(out, symbols.getName(i));
+			out.append('"');
+		}
+		out.append("};\n\t\n");
+		
+		appendArray(out, "BASE", table.getBaseArray());
+		appendArray(out, "NEXT", table.getNextArray());
+		appendArray(out, "CHECK", table.getCheckArray());
+		if(style == Style.TABLE)
+		{
+			appendArray(out, "DEFAULTS", table.getDefaultArray());
+			appendArray(out, "CONSISTENT", table.getConsistentArray());
+			appendArray(out, "GOTO_DEFAULTS", table.getDefaultGotoArray());
+			appendArray(out, "RULE_LHS", rulelhs);
+			appendArray(out, "RULE_LENGTH", rulelength);
+		}
+		else
+		{
+			out.append("\tprivate static final int ACCEPT = -1;\t//what a run method returns when the parse ends\n");
+			out.append("\tprivate static final int REJECT = -2;\n\t\n");
+			out.append("\t//where a parse is, kept here while it moves between the run methods of blocks of states\n");
+			out.append("\tprivate int[] tokens;\n");
+			out.append("\tprivate int[] stack = new int[64];\n");
+			out.append("\tprivate int top;\n");
+			out.append("\tprivate int i;\n\t\n");
+		}
+		
+		out.append(COMMON.replace("#NAME#", classname));
+		if(style == Style.TABLE)
+			out.append(TABLE_LOOP);
+		else
+		{
+			out.append(DIRECT_PARSE.replace("#NAME#", classname));
+			appendStates(out);
+		}
+		out.append(TOKENIZER);
+		out.append("}\n");
+		
+		return out.toString();
+	}
+	
+	//Writes the source to Name.java in a directory, and returns the file
+	public Path write(Path directory, String packagename, String classname) throws IOException
+	{
+		Files.createDirectories(directory);
+		Path file = directory.resolve(classname + ".java");
+		Files.write(file, generate(packagename, classname).getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+	
+	/*
+	 * Writes the run methods of the DIRECT style, and the run method that picks between them
+	 * if there is more than one. A run method has a loop that switches on the state, and the
+	 * case of every state switches on the terminal and sets the next state itself, so a parse
+	 * never looks an action up. The states are split into blocks of about BUDGET bytes of code,
+	 * one per run method, and a parse only returns from one when it moves to another block
+	 */
+	private void appendStates(StringBuilder out)
+	{
+		int rows = table.getRowCount();
+		SymbolTable symbols = table.getSymbols();
+		
+		lookups = new boolean[symbols.size() - symbols.terminalCount()];
+		for(int row=0; row<rows; row++)
+		{
+			for(int i=0; i<lookups.length; i++)
+			{
+				if(table.getStoredWord(row, symbols.terminalCount() + i) != Table.EMPTY)
+					lookups[i] = true;
+			}
+		}
+		
+		StringBuilder[] cases = new StringBuilder[rows];
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		int size = BUDGET;
+		for(int row=0; row<rows; row++)
+		{
+			cases[row] = new StringBuilder();
+			int cost = appendState(cases[row], row);
+			if(cost > LIMIT)
+				throw new IllegalStateException("State " + row + " has too many actions for the DIRECT style");
+			
+			if(size + cost > BUDGET)
+			{
+				starts.add(row);
+				size = 0;
+			}
+			size += cost;
+		}
+		
+		int blocks = starts.size();
+		starts.add(rows);
+		for(int b=0; b<blocks; b++)
+		{
+			int from = starts.get(b), to = starts.get(b + 1);
+			if(blocks == 1)
+			{
+				out.append("\t//Runs the parse until it ends, and returns ACCEPT or REJECT\n");
+				out.append("\tprivate int run(int state)\n\t{\n");
+			}
+			else
+			{
+				out.append("\t//Runs the parse from a state of ").append(from).append(" to ").append(to - 1)
+						.append(" until it ends or moves to another block, and returns ACCEPT, REJECT or the state it moved to\n");
+				out.append("\tprivate int run_").append(b).append("(int state)\n\t{\n");
+			}
+			
+			out.append("\t\tint[] tokens = this.tokens;\n");
+			out.append("\t\tint[] stack = this.stack;\n");
+			out.append("\t\tint top = this.top;\n");
+			out.append("\t\tint i = this.i;\n");
+			out.append("\t\t\n");
+			out.append("\t\twhile(true)\n\t\t{\n");
+			out.append("\t\t\tpush: switch(state)\n\t\t\t{\n");
+			for(int row=from; row<to; row++)
+				out.append(cases[row]);
+			out.append("\t\t\t\tdefault:\n\t\t\t\t\treturn REJECT;\n");
+			out.append("\t\t\t}\n\t\t\t\n");
+			
+			//every case that does not end the parse breaks out of the switch with the state to push
+			out.append("\t\t\tif(++top == stack.length)\n");
+			out.append("\t\t\t\tstack = java.util.Arrays.copyOf(stack, stack.length * 2);\n");
+			out.append("\t\t\tstack[top] = state;\n");
+			if(blocks > 1)
+			{
+				out.append("\t\t\tif(");
+				if(from > 0)
+					out.append("state < ").append(from).append(" || ");
+				out.append("state >= ").append(to).append(")\n");
+				out.append("\t\t\t{\n");
+				out.append("\t\t\t\tthis.stack = stack;\n");
+				out.append("\t\t\t\tthis.top = top;\n");
+				out.append("\t\t\t\tthis.i = i;\n");
+				out.append("\t\t\t\treturn state;\n");
+				out.append("\t\t\t}\n");
+			}
+			out.append("\t\t}\n\t}\n\t\n");
+		}
+		
+		if(blocks > 1)
+		{
+			int[] firsts = new int[blocks];
+			for(int b=0; b<blocks; b++)
+				firsts[b] = starts.get(b);
+			
+			out.append("\t//Runs the block of a state\n");
+			out.append("\tprivate int run(int state)\n\t{\n");
+			appendSearch(out, "run", "state", "state", firsts, 0, blocks - 1, "\t\t");
+			out.append("\t}\n\t\n");
+		}
+	}
+	
+	//Writes the case of a state in a run method, and returns about how many bytes of code it compiles to
+	private int appendState(StringBuilder out, int row)
+	{
+		out.append("\t\t\t\tcase ").append(row).append(":\n");
+		
+		int consistent = table.getConsistentReduce(row);
+		if(consistent != Table.EMPTY)
+			return 4 + appendAction(out, consistent, "\t\t\t\t\t");	//reduces on every terminal, so the terminal is not looked at
+		
+		SymbolTable symbols = table.getSymbols();
+		int fallback = actionWord(table.getDefaultWord(row));
+		
+		//the terminals of every action other than the default, by its word
+		LinkedHashMap<Integer, ArrayList<Integer>> actions = new LinkedHashMap<Integer, ArrayList<Integer>>();
+		for(int column=0; column<symbols.terminalCount(); column++)
+		{
+			int word = actionWord(table.getAction(row, column));
+			if(column == symbols.getEndMarker() && Table.getKind(word) == Table.SHIFT)
+				word = Table.EMPTY;	//the tokens end with END, so a parse that shifts it has no input left
+			if(word == fallback)
+				continue;
+			
+			ArrayList<Integer> columns = actions.get(word);
+			if(columns == null)
+			{
+				columns = new ArrayList<Integer>();
+				actions.put(word, columns);
+			}
+			columns.add(column);
+		}
+		
+		if(actions.isEmpty())
+			return 4 + appendAction(out, fallback, "\t\t\t\t\t");
+		
+		int count = 0, low = Integer.MAX_VALUE, high = Integer.MIN_VALUE;
+		int cost = 0;
+		out.append("\t\t\t\t\tswitch(tokens[i])\n\t\t\t\t\t{\n");
+		for(Map.Entry<Integer, ArrayList<Integer>> action: actions.entrySet())
+		{
+			for(int column: action.getValue())
+			{
+				out.append("\t\t\t\t\t\tcase ").append(column).append(":\n");
+				count++;
+				low = Math.min(low, column);
+				high = Math.max(high, column);
+			}
+			cost += appendAction(out, action.getKey(), "\t\t\t\t\t\t\t");
+		}
+		cost += 8 + switchSize(count, low, high);
+		out.append("\t\t\t\t\t\tdefault:\n");
+		cost += appendAction(out, fallback, "\t\t\t\t\t\t\t");
+		out.append("\t\t\t\t\t}\n");
+		
+		return cost;
+	}
+	
+	/*
+	 * About how many bytes the switch javac makes for some keys takes. It makes a jump table
+	 * of every key from low to high when that is not much larger than a list of the keys, so a
+	 * key can take up to 20 bytes
+	 */
+	private static int switchSize(int count, int low, int high)
+	{
+		long range = (long) high - low + 1;
+		if(4 + range + 3 * 3 <= 3 + 2 * count + 3 * count)
+			return 16 + 4 * (int) range;
+		
+		return 12 + 8 * count;
+	}
+	
+	//The word with every kind of error made EMPTY, so errors that are stored for different reasons are one action
+	private static int actionWord(int word)
+	{
+		int kind = Table.getKind(word);
+		return kind == Table.SHIFT || kind == Table.REDUCE ? word : Table.EMPTY;
+	}
+	
+	/*
+	 * Writes the statements of a shift, reduce or error in a run method, and returns about how
+	 * many bytes of code they compile to. A shift or reduce breaks out of the switch on the
+	 * state with the state to push, and the accepting reduce and an error return
+	 */
+	private int appendAction(StringBuilder out, int word, String indent)
+	{
+		int kind = Table.getKind(word), target = Table.getTarget(word);
+		if(kind == Table.SHIFT)
+		{
+			out.append(indent).append("i++;\n");
+			out.append(indent).append("state = ").append(target).append(";\n");
+			out.append(indent).append("break push;\n");
+			return 12;
+		}
+		
+		if(kind != Table.REDUCE)
+		{
+			out.append(indent).append("return REJECT;\n");
+			return 4;
+		}
+		
+		if(target == 0)
+		{
+			out.append(indent).append("return ACCEPT;\n");
+			return 4;
+		}
+		
+		int lhs = table.getRuleLHS(target);
+		int length = table.getRuleLength(target);
+		int go = table.getDefaultGotoWord(lhs);
+		int fallback = go == Table.EMPTY ? -1 : Table.getTarget(go);
+		if(length > 0)
+			out.append(indent).append("top -= ").append(length).append(";\n");
+		
+		if(!lookups[lhs - table.getSymbols().terminalCount()])
+		{
+			//every goto on the lhs is the default, so it is known here
+			out.append(indent).append("state = ").append(fallback).append(";\n");
+		}
+		else
+		{
+			out.append(indent).append("state = go(stack[top], ").append(lhs).append(", ").append(fallback).append(");\n");
+			if(fallback == -1)
+			{
+				out.append(indent).append("if(state < 0)\n");
+				out.append(indent).append("\treturn REJECT;\n");
+			}
+		}
+		out.append(indent).append("break push;\n");
+		return 24;
+	}
+	
+	//Writes the ifs that find which of the methods name_first to name_last has the key, firsts holds the first key of every method
+	private static void appendSearch(StringBuilder out, String name, String arguments, String key, int[] firsts,
+			int first, int last, String indent)
+	{
+		if(first == last)
+		{
+			out.append(indent).append("return ").append(name).append("_").append(first).append("(").append(arguments).append(");\n");
+			return;
+		}
+		
+		int middle = (first + last + 1) / 2;
+		out.append(indent).append("if(").append(key).append(" < ").append(firsts[middle]).append(")\n");
+		out.append(indent).append("{\n");
+		appendSearch(out, name, arguments, key, firsts, first, middle - 1, indent + "\t");
+		out.append(indent).append("}\n");
+		appendSearch(out, name, arguments, key, firsts, middle, last, indent);
+	}
+	
+	private static void appendArray(StringBuilder out, String name, int[] values)
+	{
+		out.append("\tprivate static final int[] ").append(name).append(" = unpack(");
+		if(values.length == 0)
+			out.append("\"\"");
+		
+		for(int i=0; i<values.length; i++)
+		{
+			if(i % CHUNK == 0)
+				out.append(i == 0 ? "\n\t\t\t\"" : "\",\n\t\t\t\"");
+			else if(i % LINE == 0)
+				out.append("\"\n\t\t\t+ \"");
+			
+			appendChar(out, (char) (values[i] >>> 16));
+			appendChar(out, (char) values[i]);
+		}
+		
+		if(values.length != 0)
+			out.append('"');
+		out.append(");\n\t\n");
+	}
+	
+	private static void appendEscaped(StringBuilder out, String text)
+	{
+		for(int i=0; i<text.length(); i++)
+			appendChar(out, text.charAt(i));
+	}
+	
+	/*
+	 * Writes a char as it would appear inside a string literal
+	 * A unicode escape is read before the string is, so the escape of a line feed would
+	 * end the line and the escape of a quote would end the string. Those chars get their plain escapes instead
+	 */
+	private static void appendChar(StringBuilder out, char c)
+	{
+		switch(c)
+		{
+			case '\n': out.append("\\n");
+					   break;
+			case '\r': out.append("\\r");
+					   break;
+			case '"': out.append("\\\"");
+					  break;
+			case '\\': out.append("\\\\");
+					   break;
+			default: if(c >= 0x20 && c < 0x7f)
+						 out.append(c);
+					 else
+						 out.append(String.format("\\u%04x", (int) c));
+		}
+	}
+	
+	//The code every generated class starts its methods with, #NAME# is the name of the class
+	private static final String COMMON =
+			"\tprivate #NAME#()\n" +
+			"\t{\n" +
+			"\t}\n" +
+			"\t\n" +
+			"\t//Parses a string of terminals, with no end marker. Returns false if it is rejected\n" +
+			"\tpublic static boolean parse(String input)\n" +
+			"\t{\n" +
+			"\t\tint[] tokens = tokenize(input);\n" +
+			"\t\treturn tokens != null && parse(tokens);\n" +
+			"\t}\n" +
+			"\t\n";
+	
+	//The parse loop of the TABLE style
+	private static final String TABLE_LOOP =
+			"\t//Parses the ids of terminals, which must end with END. Returns false if they are rejected\n" +
+			"\tpublic static boolean parse(int[] tokens)\n" +
+			"\t{\n" +
+			"\t\tint[] stack = new int[64];\n" +
+			"\t\tint top = 0;\n" +
+			"\t\t\n" +
+			"\t\tint i = 0;\n" +
+			"\t\twhile(i < tokens.length)\n" +
+			"\t\t{\n" +
+			"\t\t\tint state = stack[top];\n" +
+			"\t\t\tint action = CONSISTENT[state];\n" +
+			"\t\t\tif(action == 0)\n" +
+			"\t\t\t{\n" +
+			"\t\t\t\tint k = BASE[state] + tokens[i];\n" +
+			"\t\t\t\taction = CHECK[k] == state ? NEXT[k] : DEFAULTS[state];\n" +
+			"\t\t\t}\n" +
+			"\t\t\t\n" +
+			"\t\t\tswitch(action & 3)\n" +
+			"\t\t\t{\n" +
+			"\t\t\t\tcase 1: if(++top == stack.length)\n" +
+			"\t\t\t\t\t\t\tstack = java.util.Arrays.copyOf(stack, stack.length * 2);\n" +
+			"\t\t\t\t\t\tstack[top] = action >>> 2;\n" +
+			"\t\t\t\t\t\ti++;\n" +
+			"\t\t\t\t\t\tbreak;\n" +
+			"\t\t\t\t\n" +
+			"\t\t\t\tcase 2: int rule = action >>> 2;\n" +
+			"\t\t\t\t\t\tif(rule == 0)\n" +
+			"\t\t\t\t\t\t\treturn true;\n" +
+			"\t\t\t\t\t\t\n" +
+			"\t\t\t\t\t\ttop -= RULE_LENGTH[rule];\n" +
+			"\t\t\t\t\t\tif(top < 0)\n" +
+			"\t\t\t\t\t\t\treturn false;\n" +
+			"\t\t\t\t\t\t\n" +
+			"\t\t\t\t\t\tint lhs = RULE_LHS[rule];\n" +
+			"\t\t\t\t\t\tint k = BASE[stack[top]] + lhs;\n" +
+			"\t\t\t\t\t\tint go = CHECK[k] == stack[top] ? NEXT[k] : GOTO_DEFAULTS[lhs - TERMINALS];\n" +
+			"\t\t\t\t\t\tif(go == 0)\n" +
+			"\t\t\t\t\t\t\treturn false;\n" +
+			"\t\t\t\t\t\tif(++top == stack.length)\n" +
+			"\t\t\t\t\t\t\tstack = java.util.Arrays.copyOf(stack, stack.length * 2);\n" +
+			"\t\t\t\t\t\tstack[top] = go >>> 2;\n" +
+			"\t\t\t\t\t\tbreak;\n" +
+			"\t\t\t\t\n" +
+			"\t\t\t\tdefault: return false;\n" +
+			"\t\t\t}\n" +
+			"\t\t}\n" +
+			"\t\t\n" +
+			"\t\treturn false;\n" +
+			"\t}\n" +
+			"\t\n";
+	
+	//The parse of the DIRECT style, which runs blocks of states until one ends it
+	private static final String DIRECT_PARSE =
+			"\t//Parses the ids of terminals, which must end with END. Returns false if they are rejected\n" +
+			"\tpublic static boolean parse(int[] tokens)\n" +
+			"\t{\n" +
+			"\t\tif(tokens.length == 0 || tokens[tokens.length - 1] != END)\n" +
+			"\t\t\treturn false;\n" +
+			"\t\t\n" +
+			"\t\t#NAME# parser = new #NAME#();\n" +
+			"\t\tparser.tokens = tokens;\n" +
+			"\t\tint state = 0;\n" +
+			"\t\twhile(state >= 0)\n" +
+			"\t\t\tstate = parser.run(state);\n" +
+			"\t\t\n" +
+			"\t\treturn state == ACCEPT;\n" +
+			"\t}\n" +
+			"\t\n" +
+			"\t//The goto of a state on a non-terminal, or fallback if the state has none of its own\n" +
+			"\tprivate static int go(int state, int lhs, int fallback)\n" +
+			"\t{\n" +
+			"\t\tint k = BASE[state] + lhs;\n" +
+			"\t\treturn CHECK[k] == state ? NEXT[k] >>> 2 : fallback;\n" +
+			"\t}\n" +
+			"\t\n";
+	
+	//The tokenizer and unpacking every generated class ends with
+	private static final String TOKENIZER =
+			"\t//Splits the input into terminal ids by longest match and adds END. Returns null if some part is not a terminal\n" +
+			"\tpublic static int[] tokenize(String input)\n" +
+			"\t{\n" +
+			"\t\tint[] tokens = new int[input.length() + 1];\n" +
+			"\t\tint count = 0;\n" +
+			"\t\t\n" +
+			"\t\tint i = 0;\n" +
+			"\t\twhile(i < input.length())\n" +
+			"\t\t{\n" +
+			"\t\t\tint best = -1;\n" +
+			"\t\t\tfor(int t=0; t<NAMES.length; t++)\n" +
+			"\t\t\t{\n" +
+			"\t\t\t\tif(input.startsWith(NAMES[t], i) && (best == -1 || NAMES[t].length() > NAMES[best].length()))\n" +
+			"\t\t\t\t\tbest = t;\n" +
+			"\t\t\t}\n" +
+			"\t\t\tif(best == -1 || NAMES[best].isEmpty())\n" +
+			"\t\t\t\treturn null;\n" +
+			"\t\t\t\n" +
+			"\t\t\ttokens[count++] = best;\n" +
+			"\t\t\ti += NAMES[best].length();\n" +
+			"\t\t}\n" +
+			"\t\t\n" +
+			"\t\ttokens[count++] = END;\n" +
+			"\t\treturn java.util.Arrays.copyOf(tokens, count);\n" +
+			"\t}\n" +
+			"\t\n" +
+			"\t//Two chars per int, high half first\n" +
+			"\tprivate static int[] unpack(String... chunks)\n" +
+			"\t{\n" +
+			"\t\tint length = 0;\n" +
+			"\t\tfor(String chunk: chunks)\n" +
+			"\t\t\tlength += chunk.length() / 2;\n" +
+			"\t\t\n" +
+			"\t\tint[] values = new int[length];\n" +
+			"\t\tint i = 0;\n" +
+			"\t\tfor(String chunk: chunks)\n" +
+			"\t\t{\n" +
+			"\t\t\tfor(int k=0; k<chunk.length(); k+=2)\n" +
+			"\t\t\t\tvalues[i++] = chunk.charAt(k) << 16 | chunk.charAt(k + 1);\n" +
+			"\t\t}\n" +
+			"\t\treturn values;\n" +
+			"\t}\n";
+	
+	/*
+	 * Times Parser against the classes both styles generate for the same table and input,
+	 * each compiled with the system Java compiler and loaded into a fresh class loader.
+	 * Every parser runs the input the given number of times and the best run is reported.
+	 * Parser and parse(String) include splitting the input, parse(int[]) starts from the tokens
+	 */
+	public static StringBuffer benchmark(Table table, String input, int runs) throws IOException, ReflectiveOperationException
+	{
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if(compiler == null)
+			throw new IllegalStateException("No Java compiler, the benchmark must run on a JDK");
+		
+		StringBuffer report = new StringBuffer();
+		report.append(String.format("%-26s%12s%10s%n", "Parser", "Best (ms)", "Accepted"));
+		
+		Parser parser = new Parser(table);
+		long best = Long.MAX_VALUE;
+		boolean accepted = false;
+		for(int run=0; run<runs; run++)
+		{
+			long start = System.nanoTime();
+			accepted = parser.parse(input).toString().endsWith("ACCEPTED");
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		report.append(String.format("%-26s%12.2f%10s%n", "Parser", best / 1e6, accepted ? "yes" : "no"));
+		
+		Path directory = Files.createTempDirectory("parsergenerator");
+		try
+		{
+			for(Style style: Style.values())
+			{
+				String name = "Benchmark" + style.name().charAt(0) + style.name().substring(1).toLowerCase() + "Parser";
+				Path file = new ParserGenerator(table, style).write(directory, null, name);
+				if(compiler.run(null, null, null, "-d", directory.toString(), file.toString()) != 0)
+					throw new IllegalStateException("Generated " + file + " does not compile");
+				
+				try(URLClassLoader loader = new URLClassLoader(new URL[]{directory.toUri().toURL()}))
+				{
+					Class<?> generated = loader.loadClass(name);
+					Method parsestring = generated.getMethod("parse", String.class);
+					Method parsetokens = generated.getMethod("parse", int[].class);
+					int[] tokens = (int[]) generated.getMethod("tokenize", String.class).invoke(null, input);
+					
+					best = Long.MAX_VALUE;
+					for(int run=0; run<runs; run++)
+					{
+						long start = System.nanoTime();
+						accepted = (Boolean) parsestring.invoke(null, input);
+						best = Math.min(best, System.nanoTime() - start);
+					}
+					report.append(String.format("%-26s%12.2f%10s%n", style + " parse(String)", best / 1e6, accepted ? "yes" : "no"));
+					
+					best = Long.MAX_VALUE;
+					for(int run=0; tokens != null && run<runs; run++)
+					{
+						long start = System.nanoTime();
+						accepted = (Boolean) parsetokens.invoke(null, (Object) tokens);
+						best = Math.min(best, System.nanoTime() - start);
+					}
+					report.append(String.format("%-26s%12.2f%10s%n", style + " parse(int[])", best / 1e6, tokens != null && accepted ? "yes" : "no"));
+				}
+			}
+		}
+		finally
+		{
+			deleteTree(directory);
+		}
+		
+		return report;
+	}
+	
+	//Deletes a directory and everything in it, children before their parents. It is only cleanup,
+	//so whatever cannot be deleted is left behind rather than hiding the exception the benchmark threw
+	private static void deleteTree(Path directory)
+	{
+		List<Path> paths;
+		try(Stream<Path> walk = Files.walk(directory))
+		{
+			paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+		}
+		catch(IOException | UncheckedIOException e)
+		{
+			return;
+		}
+		
+		for(Path path: paths)
+		{
+			try
+			{
+				Files.deleteIfExists(path);
+			}
+			catch(IOException e)
+			{
+				//left behind
+			}
+		}
+	}
+	
+	public static void main(String[] args) throws IOException
+	{
+		Alphabet a = new Alphabet();
+		a.add("+");
+		a.add("*");
+		a.add("(");
+		a.add(")");
+		a.add("id");
+		String[] p = {"S->E$", "E->E+T", "E->T", "T->T*F", "T->F", "F->(E)", "F->id"};
+		
+		Table table = new Table(new DFA(new Grammar(a, p)));
+		Path file = new ParserGenerator(table).write(Paths.get(System.getProperty("java.io.tmpdir")), null, "ExpressionParser");
+		System.out.println("Wrote " + file);
+		
+		StringBuilder input = new StringBuilder("id");
+		for(int i=0; i<20000; i++)
+			input.append(i % 3 == 0 ? "+(id*id)" : "*id");
+		
+		try
+		{
+			System.out.print(benchmark(table, input.toString(), 20));
+		}
+		catch(ReflectiveOperationException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
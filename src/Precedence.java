@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 
+ * Yacc style precedence and associativity of terminals, used by the table to settle
+ * shift/reduce conflicts, so an ambiguous grammar like E->E+E | E*E | id can be used
+ * in place of the layered E/T/F form
+ * 
+ * Every declaration makes a new level, higher than every level before it, and gives its
+ * terminals that level and an associativity. A production has the level of the last terminal
+ * of its rhs that has one, unless it is given the level of another terminal with %prec.
+ * A terminal named only for %prec, like UMINUS, need not be in the alphabet
+ * 
+ * When a cell has a shift on a terminal and a reduce by a production that both have a level:
+ * 1. The higher level wins
+ * 2. On the same level, left associativity reduces, right associativity shifts,
+ * 		and non associative makes the cell an error
+ * Anything else is left as a conflict
+ */
+public class Precedence
+{
+	public enum Associativity
+	{
+		LEFT("%left"), RIGHT("%right"), NONASSOC("%nonassoc");
+		
+		private String keyword;
+		
+		private Associativity(String keyword)
+		{
+			this.keyword = keyword;
+		}
+		
+		public String getKeyword()
+		{
+			return keyword;
+		}
+		
+		//The associativity a declaration keyword stands for, or null if it is not one
+		public static Associativity forKeyword(String keyword)
+		{
+			for(Associativity associativity: values())
+			{
+				if(associativity.keyword.equals(keyword))
+					return associativity;
+			}
+			return null;
+		}
+	}
+	
+	private HashMap<String, Integer> levels;	//by terminal name, levels start from 1
+	private ArrayList<Associativity> associativities;	//by level - 1
+	private ArrayList<String[]> declarations;	//the terminals of each level, in the order they were declared
+	private LinkedHashMap<String, String> productionterminals;	//the %prec terminal of a production, by the production as written
+	
+	public Precedence()
+	{
+		levels = new HashMap<String, Integer>();
+		associativities = new ArrayList<Associativity>();
+		declarations = new ArrayList<String[]>();
+		productionterminals = new LinkedHashMap<String, String>();
+	}
+	
+	//Gives the terminals a new level above every earlier one, and returns it
+	public int declare(Associativity associativity, String... terminals)
+	{
+		int level = associativities.size() + 1;
+		for(String terminal: terminals)
+		{
+			if(levels.containsKey(terminal))
+				throw new IllegalArgumentException("Precedence of " + terminal + " is already declared");
+		}
+		
+		for(String terminal: terminals)
+			levels.put(terminal, level);
+		associativities.add(associativity);
+		declarations.add(terminals.clone());
+		
+		return level;
+	}
+	
+	/*
+	 * Gives a production the level of a declared terminal instead of the level of its rhs
+	 * The production is written as A->rhs, the same way as in the grammar, so it still
+	 * matches after other productions are added or removed
+	 */
+	public void setProductionPrecedence(String production, String terminal)
+	{
+		if(!levels.containsKey(terminal))
+			throw new IllegalArgumentException("Precedence of " + terminal + " is not declared");
+		
+		productionterminals.put(production, terminal);
+	}
+	
+	public boolean isEmpty()
+	{
+		return associativities.isEmpty();
+	}
+	
+	//The level of a terminal, 0 if it has none
+	public int getLevel(String terminal)
+	{
+		Integer level = levels.get(terminal);
+		return level == null ? 0 : level;
+	}
+	
+	public Associativity getAssociativity(int level)
+	{
+		return associativities.get(level - 1);
+	}
+	
+	//The level of a production, 0 if it has none
+	public int getLevel(Grammar.Production production)
+	{
+		String terminal = productionterminals.get(production.toString());
+		if(terminal != null)
+			return getLevel(terminal);
+		
+		String[] rhs = production.getRHSAsStringArray();
+		for(int i=rhs.length-1; i>=0; i--)
+		{
+			int level = getLevel(rhs[i]);
+			if(level != 0)
+				return level;
+		}
+		
+		return 0;
+	}
+	
+	//The declarations as they would be written in a grammar file, one per line
+	@Override
+	public String toString()
+	{
+		StringBuilder text = new StringBuilder();
+		for(int i=0; i<declarations.size(); i++)
+		{
+			text.append(associativities.get(i).getKeyword());
+			for(String terminal: declarations.get(i))
+				text.append(" ").append(terminal);
+			text.append("\n");
+		}
+		
+		for(Map.Entry<String, String> entry: productionterminals.entrySet())
+			text.append(entry.getKey()).append(" %prec ").append(entry.getValue()).append("\n");
+		
+		return text.toString();
+	}
+	
+	public static void main(String[] args)
+	{
+		Alphabet a = new Alphabet();
+		a.add("+");
+		a.add("-");
+		a.add("*");
+		a.add("/");
+		a.add("(");
+		a.add(")");
+		a.add("id");
+		
+		String[] layered = {"S->E$", "E->E+T", "E->E-T", "E->T", "T->T*F", "T->T/F", "T->F", "F->(E)", "F->id"};
+		String[] ambiguous = {"S->E$", "E->E+E", "E->E-E", "E->E*E", "E->E/E", "E->(E)", "E->id"};
+		
+		Grammar g = new Grammar(a, ambiguous);
+		Precedence precedence = new Precedence();
+		precedence.declare(Associativity.LEFT, "+", "-");
+		precedence.declare(Associativity.LEFT, "*", "/");
+		g.setPrecedence(precedence);
+		
+		Table table = new Table(new DFA(g));
+		Table layeredtable = new Table(new DFA(new Grammar(a, layered)));
+		
+		System.out.println("Layered: " + layeredtable.getRowCount() + " states");
+		System.out.println("Ambiguous with precedence: " + table.getRowCount() + " states, " +
+				(table.hasConflict() ? "conflicts left" : "no conflicts"));
+		
+		System.out.println(new Parser(table).parse("id+id*id-id/(id+id)"));
+	}
+}
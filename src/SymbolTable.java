@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * 
+ * A class that gives every symbol of a grammar a small integer id
+ * The ids are dense and assigned in this order:
+ * 1. The terminals, in the order of the alphabet
+ * 2. The end marker $
+ * 3. The non-terminals, in the order they are added
+ * 
+ * So a symbol is a terminal exactly when its id is at most the id of $.
+ * Everything after the input is read works on these ids, the names are only
+ * used to read input and to print output.
+ */
+public class SymbolTable 
+{
+	public static final String END = "$";
+	
+	private ArrayList<String> names;
+	private HashMap<String, Integer> ids;
+	private int end;
+	
+	public SymbolTable(Alphabet alphabet)
+	{
+		names = new ArrayList<String>();
+		ids = new HashMap<String, Integer>();
+		
+		for(String s: alphabet)
+		{
+			if(!s.equals(END))
+				add(s);
+		}
+		
+		end = add(END);
+	}
+	
+	private int add(String name)
+	{
+		Integer id = ids.get(name);
+		if(id != null)
+			return id;
+		
+		names.add(name);
+		ids.put(name, names.size() - 1);
+		return names.size() - 1;
+	}
+	
+	/*
+	 * Adds a non-terminal and returns its id
+	 * If the non-terminal was already added, its old id is returned
+	 */
+	public int addNonTerminal(String name)
+	{
+		Integer id = ids.get(name);
+		if(id != null && isTerminal(id))
+			throw new IllegalArgumentException(name + " is a terminal and cannot be used as a non-terminal");
+		
+		return add(name);
+	}
+	
+	//Returns -1 if the symbol is not in the table
+	public int getId(String name)
+	{
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+	
+	public String getName(int id)
+	{
+		return names.get(id);
+	}
+	
+	public int getEndMarker()
+	{
+		return end;
+	}
+	
+	public boolean isTerminal(int id)
+	{
+		return id <= end;
+	}
+	
+	public boolean isNonTerminal(int id)
+	{
+		return id > end;
+	}
+	
+	//Number of terminals, including the end marker
+	public int terminalCount()
+	{
+		return end + 1;
+	}
+	
+	public int nonTerminalCount()
+	{
+		return names.size() - end - 1;
+	}
+	
+	public int size()
+	{
+		return names.size();
+	}
+	
+	/*
+	 * Prints a set of ids as their names, in the same format as
+	 * the toString of a java collection
+	 */
+	public String toString(BitSet symbols)
+	{
+		StringBuilder str = new StringBuilder("[");
+		for(int id = symbols.nextSetBit(0); id >= 0; id = symbols.nextSetBit(id + 1))
+		{
+			if(str.length() > 1)
+				str.append(", ");
+			str.append(names.get(id));
+		}
+		
+		return str.append("]").toString();
+	}
+}
@@ -0,0 +1,79 @@
+import java.util.Arrays;
+
+/**
+ * 
+ * A prefix tree of symbol names, used to split a string into symbols
+ * Finds the longest symbol that starts at a given position, so a symbol like
+ * id is read as id even when i is also a symbol. The work done is the length
+ * of the match, however many symbols there are
+ */
+public class SymbolTrie 
+{
+	/*
+	 * A node of the trie. The children are kept in two small parallel arrays,
+	 * since most nodes have very few of them
+	 */
+	private class Node
+	{
+		char[] keys = new char[0];
+		Node[] children = new Node[0];
+		int symbol = -1;	//id of the symbol that ends here, if any
+		
+		public Node getChild(char c)
+		{
+			for(int i=0; i<keys.length; i++)
+			{
+				if(keys[i] == c)
+					return children[i];
+			}
+			
+			return null;
+		}
+		
+		public Node addChild(char c)
+		{
+			Node child = getChild(c);
+			if(child != null)
+				return child;
+			
+			child = new Node();
+			keys = Arrays.copyOf(keys, keys.length + 1);
+			children = Arrays.copyOf(children, children.length + 1);
+			keys[keys.length - 1] = c;
+			children[children.length - 1] = child;
+			return child;
+		}
+	}
+	
+	private Node root;
+	
+	public SymbolTrie()
+	{
+		root = new Node();
+	}
+	
+	public void add(String name, int id)
+	{
+		Node node = root;
+		for(int i=0; i<name.length(); i++)
+			node = node.addChild(name.charAt(i));
+		
+		node.symbol = id;
+	}
+	
+	//Returns the id of the longest symbol that starts at the given index of text, or -1 if there is none
+	public int longestMatch(String text, int from)
+	{
+		int match = -1;
+		Node node = root;
+		
+		for(int i=from; i<text.length() && node != null; i++)
+		{
+			node = node.getChild(text.charAt(i));
+			if(node != null && node.symbol != -1)
+				match = node.symbol;
+		}
+		
+		return match;
+	}
+}
@@ -1,10 +1,49 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * 
  * Simple class that reads a DFA and converts it into table format for the parser
  * Data does not lose integrity even in the case of conflicts
+ * 
+ * Every cell is a single int word, with the kind of entry in its low two bits and its
+ * target above them: the next state for a shift or goto, the rule for a reduce.
+ * An empty cell is 0. Entry objects are only made for callers that ask for them
+ * 
+ * The table is compressed by row displacement. Every row gets a base in one shared array
+ * of words, next, and its cells are stored at base + column. The rows are placed so their
+ * cells never land on each other, and check holds the row each word of next belongs to.
+ * A cell is looked up with a single index and compare, and is empty if check does not match.
+ * 
+ * A row also has a default reduce, the reduce it has on the most terminals. Those cells are
+ * not stored, and every terminal without an entry reduces by the default instead. The
+ * reduce may come before the error is found, but the error is still found before the next
+ * shift, so the same strings are accepted. The accepting reduce is never a default
+ * 
+ * In the same way every non-terminal has a default goto, the state it goes to from the
+ * most rows. A goto is only followed after a reduce that was valid, and then the row
+ * always has a goto on the lhs, so the default is never used in place of an error
+ * 
+ * Shift/reduce conflicts are settled by the precedence of the grammar if it has any, see Precedence.
+ * A cell a non associative operator makes an error holds ERROR, so the default reduce does not apply to it
+ * 
+ * A row whose only action is its default reduce is consistent. Its lookaheads are never
+ * written as cells, and the parser reduces in it without looking at the next token
+ * 
+ * A table can also be built with the unit reductions bypassed, which removes the states that
+ * only reduce by a rule like A->B and points the gotos into them at where the reduce would go
+ * 
+ * Rows are filled one at a time, and each is packed into a short list of its cells as soon
+ * as the next row is started, so the full matrix never exists
  */
 public class Table 
 {
@@ -41,51 +80,236 @@ public class Table
 		}
 	}
 	
-	private DFA dfa;
-	private Entry[][] table;
+	/*
+	 * A cell of the table, used as the key of the conflicts
+	 */
+	public static class Cell
+	{
+		private final int row, column;
+		
+		public Cell(int row, int column)
+		{
+			this.row = row;
+			this.column = column;
+		}
+		
+		public int getRow()
+		{
+			return row;
+		}
+		
+		public int getColumn()
+		{
+			return column;
+		}
+		
+		@Override
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof Cell))
+				return false;
+			
+			Cell cell = (Cell) o;
+			return row == cell.row && column == cell.column;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			//a long holds both without overlap, spread by the golden ratio so the high half mixes every bit
+			long key = (((long) row << 32) | column) * 0x9E3779B97F4A7C15L;
+			return (int) (key >>> 32);
+		}
+		
+		@Override
+		public String toString()
+		{
+			return row + ", " + column;
+		}
+	}
+	
+	public static final int EMPTY = 0;
+	public static final int SHIFT = 1;
+	public static final int REDUCE = 2;
+	public static final int GOTO = 3;
+	public static final int ERROR = 1 << 2;	//of kind EMPTY, a cell a non associative operator made an error, stored so no default fills it
+	
+	private DFA dfa;		//null for a table loaded from a TableCache
+	private DFA.Mode mode;
 	private int rows, columns;
-	private HashMap<String, Integer> map;
-	private ArrayList<Entry> conflictentries;
-	private ArrayList<Integer> conflictrows;
-	private ArrayList<Integer> conflictcolumns;
+	private int terminals;	//columns below this are actions, the rest are gotos
+	private Precedence precedence;
+	private int[] terminallevels;	//by terminal, null if the grammar has no precedence
+	private int[] rulelevels;		//by rule
+	private SymbolTable symbols;
+	
+	//The compressed table, made by pack
+	private int[] base;		//by row
+	private int[] next;
+	private int[] check;	//-1 where no row has a cell
+	private int[] defaults;	//by row, the word of its default reduce, or EMPTY
+	private int[] consistent;	//by row, the default reduce of a row with no other action, or EMPTY
+	private int[] gotodefaults;	//by non-terminal, from the first non-terminal column, the word of its default goto, or EMPTY
+	private boolean packed;
+	
+	//Which cells the defaults really stand for, so getEntry shows the table the DFA made. The parser never reads them
+	private int[] reducemask;	//by row, maskWidth(terminals) ints, the terminals its default reduce is on
+	private int[] gotomask;		//by non-terminal, maskWidth(rows) ints, the rows that have its default goto
+	
+	//The rows while the table is filled
+	private int[] rowbuffer;			//the row being filled, in full
+	private int bufferrow = -1;
+	private int[][] rowcolumns;		//the cells of every finished row, null if it has none
+	private int[][] rowwords;
+	
+	//What the parser needs to know about each rule, indexed by rule number
+	private int[] rulelhs;
+	private int[] rulelength;
+	private long buildtime;
+	private LinkedHashMap<Cell, ArrayList<Entry>> conflicts;	//every entry of a cell that was set more than once, the one in the table first
+	private int conflictcount;	//entries that lost to the first entry of their cell
 	StringBuffer output;
 
 	public Table(DFA dfa)
+	{
+		this(dfa, false);
+	}
+	
+	/*
+	 * Fills the table from a DFA. If bypassunits is set, the states that only reduce by
+	 * a unit rule are bypassed and removed, see bypassUnitReductions
+	 */
+	public Table(DFA dfa, boolean bypassunits)
 	{
 		this.dfa = dfa;
 		this.rows = dfa.statecount;	//starts from zero
-		this.columns = dfa.getGrammar().getAllSymbols().length + 1;	// +1 because $ is not included as a terminal
+		this.symbols = dfa.getGrammar().getSymbols();
+		this.columns = symbols.size();	//one column per symbol id, $ included
+		this.mode = dfa.getMode();
 		
-		map = new HashMap<String, Integer>();
-		table = new Entry[this.rows][this.columns];
-		conflictentries = new ArrayList<Entry>();
-		conflictrows = new ArrayList<Integer>();
-		conflictcolumns = new ArrayList<Integer>();
+		Grammar.Production[] productions = dfa.getGrammar().getAllProductions();
+		rulelhs = new int[productions.length];
+		rulelength = new int[productions.length];
+		for(Grammar.Production prod: productions)
+		{
+			rulelhs[prod.getRuleNumber()] = prod.getLHSId();
+			rulelength[prod.getRuleNumber()] = prod.length();
+		}
+		
+		allocate(symbols.terminalCount());
+		
+		precedence = dfa.getGrammar().getPrecedence();
+		if(!precedence.isEmpty())
+		{
+			terminallevels = new int[terminals];
+			for(int i=0; i<terminals; i++)
+				terminallevels[i] = precedence.getLevel(symbols.getName(i));
+			
+			rulelevels = new int[productions.length];
+			for(Grammar.Production prod: productions)
+				rulelevels[prod.getRuleNumber()] = precedence.getLevel(prod);
+		}
 		
-		buildMap(map);
+		long start = System.nanoTime();
 		buildTable();
+		if(bypassunits)
+			bypassUnitReductions();
+		pack();
+		buildtime = System.nanoTime() - start;
 	}
 	
+	//The DFA the table was filled from, or null if it was loaded from a TableCache
 	public DFA getDFA()
 	{
 		return dfa;
 	}
 	
-	public HashMap<String, Integer> getColumnMap()
+	public DFA.Mode getMode()
+	{
+		return mode;
+	}
+	
+	public int getRowCount()
+	{
+		return rows;
+	}
+	
+	public int getColumnCount()
+	{
+		return columns;
+	}
+	
+	public int getRuleCount()
+	{
+		return rulelhs.length;
+	}
+	
+	//The symbol id of the lhs of a rule
+	public int getRuleLHS(int rule)
 	{
-		return map;
+		return rulelhs[rule];
 	}
 	
-	private void buildMap(HashMap<String, Integer> map)
+	//The number of symbols in the rhs of a rule, which is how many states a reduce pops
+	public int getRuleLength(int rule)
 	{
-		int i=0;
-		String[] allsymbols = dfa.getGrammar().getAllSymbols();
+		return rulelength[rule];
+	}
+	
+	//Time taken to fill the table from the DFA, in milliseconds
+	public double getBuildTime()
+	{
+		return buildtime / 1e6;
+	}
+	
+	//Number of cells in the table, empty or not
+	public int size()
+	{
+		return rows * columns;
+	}
+	
+	//Number of words stored: the cells that have an entry of their own, and the defaults
+	public int entryCount()
+	{
+		pack();
+		
+		int count = 0;
+		for(int row: check)
+		{
+			if(row != -1)
+				count++;
+		}
+		for(int word: defaults)
+		{
+			if(word != EMPTY)
+				count++;
+		}
+		for(int word: gotodefaults)
+		{
+			if(word != EMPTY)
+				count++;
+		}
 		
-		for(String s: allsymbols)
-			map.put(s, i++);
+		return count;
+	}
+	
+	/*
+	 * How many times smaller the table is than the full matrix of cells
+	 * Counts every int array kept for lookups, so the bases and the defaults as well
+	 */
+	public double getCompressionRatio()
+	{
+		pack();
 		
-		map.put("$", i);	//handle this while printing table
-							//otherwise this causes no problems
+		long full = (long) rows * columns;
+		long compressed = base.length + next.length + check.length + defaults.length + gotodefaults.length;
+		return compressed == 0 ? 1 : (double) full / compressed;
+	}
+	
+	//The columns of the table are the symbol ids of this table
+	public SymbolTable getSymbols()
+	{
+		return symbols;
 	}
 	
 	private void buildTable()
@@ -115,58 +339,825 @@ public class Table
 		}
 		
 		//Fill in reduce
-		if(state.isreducestate)
+		if(isConsistent(state))
+		{
+			//every terminal reduces by the one rule, so the row only needs its default
+			DFA.State.Production prod = state.getReductions()[0];
+			BitSet lookahead = getLookahead(state, prod);
+			for(int first = lookahead.nextSetBit(0); first >= 0; first = lookahead.nextSetBit(first + 1))
+				setBit(reducemask, state.number * maskWidth(terminals), first);
+			finishRow(state.number, encode(new Entry('r', prod.getRuleNumber())));
+		}
+		else if(state.isreducestate)
 		{
-			for(DFA.State.Production prod: state.getAllProductions())
+			for(DFA.State.Production prod: state.getReductions())
 			{
-				if(prod.dotAtEnd())
+				Entry entry = new Entry('r', prod.getRuleNumber());
+				BitSet lookahead = getLookahead(state, prod);
+				for(int first = lookahead.nextSetBit(0); first >= 0; first = lookahead.nextSetBit(first + 1))
 				{
-					Entry entry = new Entry('r', prod.getRuleNumber());
-					for(String first: prod.getFirstset())
+					if(!resolveByPrecedence(state.number, first, prod.getRuleNumber()))
 						setEntry(entry, state.number, first);
 				}
 			}
 		}
 	}
 	
+	/*
+	 * Settles a reduce against the shift already in its cell by the precedence of the terminal and the rule
+	 * Returns false if it cannot be settled, and the reduce is set as a conflict like any other
+	 */
+	private boolean resolveByPrecedence(int row, int terminal, int rule)
+	{
+		if(row != bufferrow)
+			startRow(row);
+		
+		int word = rowbuffer[terminal];
+		if(word == ERROR)
+			return true;	//settled as an error by a non associative operator already
+		if(terminallevels == null || getKind(word) != SHIFT || isConflict(row, terminal))
+			return false;
+		
+		int shiftlevel = terminallevels[terminal];
+		int reducelevel = rulelevels[rule];
+		if(shiftlevel == 0 || reducelevel == 0)
+			return false;
+		
+		Precedence.Associativity associativity = precedence.getAssociativity(reducelevel);
+		if(reducelevel > shiftlevel || (reducelevel == shiftlevel && associativity == Precedence.Associativity.LEFT))
+			rowbuffer[terminal] = rule << 2 | REDUCE;
+		else if(reducelevel == shiftlevel && associativity == Precedence.Associativity.NONASSOC)
+			rowbuffer[terminal] = ERROR;
+		
+		return true;	//otherwise the shift stays
+	}
+	
+	/*
+	 * The terminals a reduce of a state is done on. SLR states have no lookaheads, so it is
+	 * everything that can follow the lhs, unless no production of the kernel can be completed.
+	 * A state like that is only reached through a symbol that derives no string, and the empty
+	 * reduces of its closure would lead from it to another like it without end
+	 */
+	private BitSet getLookahead(DFA.State state, DFA.State.Production production)
+	{
+		if(dfa.getMode() != DFA.Mode.SLR)
+			return production.getFirstset();
+		
+		for(DFA.State.Production kernel: state.getKernel())
+		{
+			if(kernel.canComplete())
+				return dfa.getGrammar().getFollowSet(production.getLHSId());
+		}
+		return new BitSet();
+	}
+	
+	/*
+	 * A state with a single reduce and no shifts, other than the accepting reduce of rule 0
+	 * The reduce must have a lookahead. One with none is an error on every terminal, and
+	 * made the default it would reduce again and again without reading the input
+	 */
+	private boolean isConsistent(DFA.State state)
+	{
+		DFA.State.Production[] reductions = state.getReductions();
+		if(reductions.length != 1 || reductions[0].getRuleNumber() == 0 || getLookahead(state, reductions[0]).isEmpty())
+			return false;
+		
+		for(DFA.State.Link link: state.getAllLinks())
+		{
+			if(!dfa.getGrammar().isNonTerminal(link.transition))
+				return false;
+		}
+		
+		return true;
+	}
+	
 	public Table(int rows, int columns)
 	{
 		this.rows = rows;
 		this.columns = columns;
 		
-		table = new Entry[this.rows][this.columns];
-		conflictentries = new ArrayList<Entry>();
-		conflictrows = new ArrayList<Integer>();
-		conflictcolumns = new ArrayList<Integer>();
+		allocate(columns);	//without symbols, every column is an action column
+	}
+	
+	/*
+	 * Creates an empty table with the given rules, to be filled by a TableCache
+	 * The table has no DFA
+	 */
+	Table(SymbolTable symbols, DFA.Mode mode, int rows, int[] rulelhs, int[] rulelength)
+	{
+		this.rows = rows;
+		this.columns = symbols.size();
+		allocate(symbols.terminalCount());
+		
+		this.symbols = symbols;
+		this.mode = mode;
+		this.rulelhs = rulelhs;
+		this.rulelength = rulelength;
+	}
+	
+	private void allocate(int terminals)
+	{
+		this.terminals = terminals;
+		
+		rowbuffer = new int[columns];
+		rowcolumns = new int[rows][];
+		rowwords = new int[rows][];
+		defaults = new int[rows];
+		reducemask = new int[rows * maskWidth(terminals)];
+		conflicts = new LinkedHashMap<Cell, ArrayList<Entry>>();
+	}
+	
+	//The kind of entry in a cell, one of EMPTY, SHIFT, REDUCE and GOTO
+	public static int getKind(int word)
+	{
+		return word & 3;
+	}
+	
+	//The state a shift or goto goes to, or the rule of a reduce
+	public static int getTarget(int word)
+	{
+		return word >>> 2;
+	}
+	
+	private static int encode(Entry entry)
+	{
+		int kind;
+		switch(entry.getEntryType())
+		{
+			case 's': kind = SHIFT;
+					  break;
+			case 'r': kind = REDUCE;
+					  break;
+			case 'g': kind = GOTO;
+					  break;
+			default: throw new IllegalArgumentException("Unknown entry type " + entry.getEntryType());
+		}
+		
+		return entry.getRuleNumber() << 2 | kind;
+	}
+	
+	private Entry decode(int word)
+	{
+		switch(getKind(word))
+		{
+			case SHIFT: return new Entry('s', getTarget(word));
+			case REDUCE: return new Entry('r', getTarget(word));
+			case GOTO: return new Entry('g', getTarget(word));
+			default: return null;
+		}
 	}
 	
-	public void setEntry(Entry entry, int row, String col)
+	/*
+	 * Sets a cell, or records a conflict if it already has an entry
+	 * Rows are filled one at a time: once a row is left, it is finished and cannot be set again
+	 */
+	public void setEntry(Entry entry, int row, int column)
 	{
-		int column = map.get(col);
+		if(row != bufferrow)
+			startRow(row);
 		
-		if(table[row][column] == null)
-			table[row][column] = entry;
+		if(rowbuffer[column] == EMPTY)
+			rowbuffer[column] = encode(entry);
 		else
 		{
-			conflictentries.add(entry);
-			conflictrows.add(row);
-			conflictcolumns.add(column);
+			Cell cell = new Cell(row, column);
+			ArrayList<Entry> entries = conflicts.get(cell);
+			if(entries == null)
+			{
+				entries = new ArrayList<Entry>();
+				entries.add(decode(rowbuffer[column]));
+				conflicts.put(cell, entries);
+			}
+			entries.add(entry);
+			conflictcount++;
 		}
 	}
 	
-	public Entry getEntry(int row, int column)
+	private void startRow(int row)
+	{
+		if(packed || rowcolumns[row] != null || defaults[row] != EMPTY)
+			throw new IllegalStateException("Row " + row + " is already finished");
+		
+		if(bufferrow != -1)
+			finishRow(bufferrow, -1);
+		
+		bufferrow = row;
+	}
+	
+	/*
+	 * Keeps the cells of the row being filled as a list, and clears the buffer for the next row
+	 * If defaultword is -1, the row gets the reduce it has on the most terminals as its default.
+	 * Otherwise the given word is the default, for a consistent row whose default cells were never set
+	 */
+	private void finishRow(int row, int defaultword)
+	{
+		if(row != bufferrow)
+			startRow(row);
+		
+		if(defaultword == -1)
+			defaultword = findDefault(rowbuffer);
+		defaults[row] = defaultword;
+		
+		int count = 0;
+		for(int column=0; column<columns; column++)
+		{
+			if(rowbuffer[column] != EMPTY && !(column < terminals && rowbuffer[column] == defaultword))
+				count++;
+			else if(rowbuffer[column] != EMPTY)
+				setBit(reducemask, row * maskWidth(terminals), column);
+		}
+		
+		if(count != 0)
+		{
+			rowcolumns[row] = new int[count];
+			rowwords[row] = new int[count];
+			int i = 0;
+			for(int column=0; column<columns; column++)
+			{
+				if(rowbuffer[column] != EMPTY && !(column < terminals && rowbuffer[column] == defaultword))
+				{
+					rowcolumns[row][i] = column;
+					rowwords[row][i++] = rowbuffer[column];
+				}
+			}
+		}
+		
+		Arrays.fill(rowbuffer, EMPTY);
+		bufferrow = -1;
+	}
+	
+	/*
+	 * A state whose only action is a reduce by a unit rule B->A, with A a non-terminal, is only
+	 * reached by a goto on A. The reduce pops it again and takes the goto on B from the state
+	 * below, so every goto on A into it can go straight to where the goto on B goes. Chains of
+	 * unit rules are followed to their end, so the parser skips all of their reductions.
+	 * The bypassed states can no longer be reached and are removed. The rest are numbered
+	 * again in order, so the rows of the table no longer match the states of the DFA
+	 * Returns the number of states removed
+	 */
+	private int bypassUnitReductions()
+	{
+		if(bufferrow != -1)
+			finishRow(bufferrow, -1);
+		
+		BitSet conflicting = new BitSet(rows);
+		for(Cell cell: conflicts.keySet())
+			conflicting.set(cell.getRow());
+		
+		//the unit rule each state only reduces by, or -1
+		int[] unitrule = new int[rows];
+		for(int row=0; row<rows; row++)
+		{
+			unitrule[row] = -1;
+			
+			int rule = getTarget(defaults[row]);
+			if(rowcolumns[row] != null || defaults[row] == EMPTY || rule == 0 || rulelength[rule] != 1 || conflicting.get(row))
+				continue;
+			if(dfa.getGrammar().isNonTerminal(dfa.getGrammar().getProduction(rule).getRHS()[0]))
+				unitrule[row] = rule;
+		}
+		
+		for(int row=0; row<rows; row++)
+		{
+			for(int i=0; rowcolumns[row] != null && i<rowcolumns[row].length; i++)
+			{
+				if(getKind(rowwords[row][i]) != GOTO)
+					continue;
+				
+				//a cycle of unit rules cannot be longer than the number of non-terminals
+				int word = rowwords[row][i];
+				for(int steps=0; steps<columns - terminals && unitrule[getTarget(word)] != -1; steps++)
+				{
+					int lhsword = getListedWord(row, rulelhs[unitrule[getTarget(word)]]);
+					if(lhsword == EMPTY)
+						break;
+					word = lhsword;
+				}
+				rowwords[row][i] = word;
+			}
+		}
+		
+		return removeUnreachableRows();
+	}
+	
+	//The word of a cell of a finished row that has not been packed yet, EMPTY if it is not listed
+	private int getListedWord(int row, int column)
+	{
+		for(int i=0; rowcolumns[row] != null && i<rowcolumns[row].length; i++)
+		{
+			if(rowcolumns[row][i] == column)
+				return rowwords[row][i];
+		}
+		return EMPTY;
+	}
+	
+	//Removes the rows no shift or goto leads to from row 0, and numbers the others again
+	private int removeUnreachableRows()
+	{
+		ArrayList<ArrayList<Entry>> lost = new ArrayList<ArrayList<Entry>>();
+		for(int row=0; row<rows; row++)
+			lost.add(new ArrayList<Entry>());
+		for(Map.Entry<Cell, ArrayList<Entry>> conflict: conflicts.entrySet())
+			lost.get(conflict.getKey().getRow()).addAll(conflict.getValue());
+		
+		BitSet reached = new BitSet(rows);
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		reached.set(0);
+		queue.add(0);
+		while(!queue.isEmpty())
+		{
+			int row = queue.poll();
+			ArrayList<Integer> targets = new ArrayList<Integer>();
+			for(int i=0; rowcolumns[row] != null && i<rowcolumns[row].length; i++)
+			{
+				if(getKind(rowwords[row][i]) == SHIFT || getKind(rowwords[row][i]) == GOTO)
+					targets.add(getTarget(rowwords[row][i]));
+			}
+			for(Entry entry: lost.get(row))
+			{
+				if(entry.getEntryType() != 'r')
+					targets.add(entry.getRuleNumber());
+			}
+			
+			for(int target: targets)
+			{
+				if(!reached.get(target))
+				{
+					reached.set(target);
+					queue.add(target);
+				}
+			}
+		}
+		
+		int count = reached.cardinality();
+		if(count == rows)
+			return 0;
+		
+		int[] number = new int[rows];
+		int next = 0;
+		for(int row=0; row<rows; row++)
+			number[row] = reached.get(row) ? next++ : -1;
+		
+		int[][] newcolumns = new int[count][];
+		int[][] newwords = new int[count][];
+		int[] newdefaults = new int[count];
+		int width = maskWidth(terminals);
+		int[] newmask = new int[count * width];
+		for(int row=0; row<rows; row++)
+		{
+			if(number[row] == -1)
+				continue;
+			
+			int[] words = rowwords[row];
+			for(int i=0; words != null && i<words.length; i++)
+			{
+				if(getKind(words[i]) == SHIFT || getKind(words[i]) == GOTO)
+					words[i] = number[getTarget(words[i])] << 2 | getKind(words[i]);
+			}
+			
+			newcolumns[number[row]] = rowcolumns[row];
+			newwords[number[row]] = words;
+			newdefaults[number[row]] = defaults[row];
+			System.arraycopy(reducemask, row * width, newmask, number[row] * width, width);
+		}
+		
+		LinkedHashMap<Cell, ArrayList<Entry>> newconflicts = new LinkedHashMap<Cell, ArrayList<Entry>>();
+		for(Map.Entry<Cell, ArrayList<Entry>> conflict: conflicts.entrySet())
+		{
+			int row = number[conflict.getKey().getRow()];
+			if(row == -1)
+			{
+				conflictcount -= conflict.getValue().size() - 1;
+				continue;
+			}
+			
+			ArrayList<Entry> entries = new ArrayList<Entry>();
+			for(Entry entry: conflict.getValue())
+			{
+				if(entry.getEntryType() == 'r')
+					entries.add(entry);
+				else
+					entries.add(new Entry(entry.getEntryType(), number[entry.getRuleNumber()]));
+			}
+			newconflicts.put(new Cell(row, conflict.getKey().getColumn()), entries);
+		}
+		
+		int removed = rows - count;
+		rows = count;
+		rowcolumns = newcolumns;
+		rowwords = newwords;
+		defaults = newdefaults;
+		reducemask = newmask;
+		conflicts = newconflicts;
+		return removed;
+	}
+	
+	//The reduce a row has on the most terminals, other than the accepting reduce of rule 0
+	private int findDefault(int[] row)
+	{
+		HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		int best = EMPTY, bestcount = 0;
+		
+		for(int column=0; column<terminals; column++)
+		{
+			int word = row[column];
+			if(getKind(word) != REDUCE || getTarget(word) == 0)
+				continue;
+			
+			Integer count = counts.get(word);
+			count = count == null ? 1 : count + 1;
+			counts.put(word, count);
+			
+			if(count > bestcount)
+			{
+				best = word;
+				bestcount = count;
+			}
+		}
+		
+		return best;
+	}
+	
+	/*
+	 * Places every row in next, the rows with the most cells first, since they are the hardest to fit
+	 * Each row takes the lowest base where none of its cells are taken. When a cell is taken,
+	 * the base jumps straight to where that cell would land on the next free index.
+	 * Rows with the same columns are common, and since cells are only ever taken, a row can
+	 * start looking right after the base of the last row with its columns
+	 */
+	private void pack()
+	{
+		if(packed)
+			return;
+		
+		if(bufferrow != -1)
+			finishRow(bufferrow, -1);
+		
+		gotodefaults = findGotoDefaults();
+		removeDefaultGotos();
+		
+		consistent = new int[rows];
+		for(int row=0; row<rows; row++)
+		{
+			int[] cells = rowcolumns[row];
+			if(cells == null || cells[0] >= terminals)
+				consistent[row] = defaults[row];
+		}
+		
+		Integer[] order = new Integer[rows];
+		for(int i=0; i<rows; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Integer.compare(cellCount(b), cellCount(a));
+			}
+		});
+		
+		base = new int[rows];
+		int size = Math.max(columns, 16);
+		next = new int[size];
+		check = new int[size];
+		Arrays.fill(check, -1);
+		BitSet taken = new BitSet();
+		int lowestfree = 0;		//every index below it is taken
+		int highest = 0;		//one past the highest index taken
+		HashMap<List<Integer>, Integer> lastbase = new HashMap<List<Integer>, Integer>();
+		
+		for(int row: order)
+		{
+			int[] cells = rowcolumns[row];
+			if(cells == null)
+				continue;
+			
+			List<Integer> pattern = new ArrayList<Integer>(cells.length);
+			for(int column: cells)
+				pattern.add(column);
+			Integer last = lastbase.get(pattern);
+			
+			int b = Math.max(last == null ? 0 : last + 1, lowestfree - cells[0]);
+			for(int i=0; i<cells.length; i++)
+			{
+				if(taken.get(b + cells[i]))
+				{
+					b = taken.nextClearBit(b + cells[i]) - cells[i];
+					i = -1;		//check every cell again at the new base
+				}
+			}
+			lastbase.put(pattern, b);
+			
+			if(b + columns > check.length)
+			{
+				size = Math.max(2 * check.length, b + columns);
+				next = Arrays.copyOf(next, size);
+				int old = check.length;
+				check = Arrays.copyOf(check, size);
+				Arrays.fill(check, old, size, -1);
+			}
+			
+			base[row] = b;
+			for(int i=0; i<cells.length; i++)
+			{
+				next[b + cells[i]] = rowwords[row][i];
+				check[b + cells[i]] = row;
+				taken.set(b + cells[i]);
+			}
+			highest = Math.max(highest, b + cells[cells.length - 1] + 1);
+			lowestfree = taken.nextClearBit(lowestfree);
+		}
+		
+		//every row can be looked up at base + column without going past the end
+		next = Arrays.copyOf(next, highest + columns);
+		int old = check.length;
+		check = Arrays.copyOf(check, highest + columns);
+		if(check.length > old)
+			Arrays.fill(check, old, check.length, -1);
+		
+		rowbuffer = null;
+		rowcolumns = null;
+		rowwords = null;
+		packed = true;
+	}
+	
+	//The goto every non-terminal has in the most rows
+	private int[] findGotoDefaults()
+	{
+		ArrayList<HashMap<Integer, Integer>> counts = new ArrayList<HashMap<Integer, Integer>>();
+		for(int column=terminals; column<columns; column++)
+			counts.add(new HashMap<Integer, Integer>());
+		
+		int[] best = new int[columns - terminals];
+		int[] bestcount = new int[columns - terminals];
+		for(int row=0; row<rows; row++)
+		{
+			int[] cells = rowcolumns[row];
+			for(int i=0; cells != null && i<cells.length; i++)
+			{
+				if(cells[i] < terminals)
+					continue;
+				
+				int non = cells[i] - terminals;
+				int word = rowwords[row][i];
+				Integer count = counts.get(non).get(word);
+				count = count == null ? 1 : count + 1;
+				counts.get(non).put(word, count);
+				
+				if(count > bestcount[non])
+				{
+					best[non] = word;
+					bestcount[non] = count;
+				}
+			}
+		}
+		
+		return best;
+	}
+	
+	//Drops the goto cells that hold the default of their non-terminal, and marks their rows in gotomask
+	private void removeDefaultGotos()
 	{
-		if(table[row][column] != null)
+		int width = maskWidth(rows);
+		gotomask = new int[(columns - terminals) * width];
+		for(int row=0; row<rows; row++)
 		{
-			//return which value?? make policy
-			return table[row][column];
+			int[] cells = rowcolumns[row];
+			if(cells == null)
+				continue;
+			
+			int count = 0;
+			for(int i=0; i<cells.length; i++)
+			{
+				if(cells[i] < terminals || rowwords[row][i] != gotodefaults[cells[i] - terminals])
+					count++;
+				else
+					setBit(gotomask, (cells[i] - terminals) * width, row);
+			}
+			
+			if(count == cells.length)
+				continue;
+			
+			int[] keptcells = new int[count];
+			int[] keptwords = new int[count];
+			int k = 0;
+			for(int i=0; i<cells.length; i++)
+			{
+				if(cells[i] < terminals || rowwords[row][i] != gotodefaults[cells[i] - terminals])
+				{
+					keptcells[k] = cells[i];
+					keptwords[k++] = rowwords[row][i];
+				}
+			}
+			
+			rowcolumns[row] = count == 0 ? null : keptcells;
+			rowwords[row] = count == 0 ? null : keptwords;
 		}
-		return null;
+	}
+	
+	private int cellCount(int row)
+	{
+		return rowcolumns[row] == null ? 0 : rowcolumns[row].length;
+	}
+	
+	/*
+	 * Makes an Entry for the cell, or returns null if it is empty. The parser reads the words instead
+	 * A cell that is not stored only shows a default if the DFA put that entry there, so the
+	 * cells the defaults merely cover for the parser stay empty
+	 */
+	public Entry getEntry(int row, int column)
+	{
+		int word = getStoredWord(row, column);
+		if(word == EMPTY && column < terminals && getBit(reducemask, row * maskWidth(terminals), column))
+			word = defaults[row];
+		else if(word == EMPTY && column >= terminals && getBit(gotomask, (column - terminals) * maskWidth(rows), row))
+			word = gotodefaults[column - terminals];
+		
+		return decode(word);
+	}
+	
+	//How many ints a mask of the given number of bits takes
+	static int maskWidth(int bits)
+	{
+		return (bits + 31) >>> 5;
+	}
+	
+	private static boolean getBit(int[] mask, int offset, int bit)
+	{
+		return (mask[offset + (bit >>> 5)] & 1 << bit) != 0;
+	}
+	
+	private static void setBit(int[] mask, int offset, int bit)
+	{
+		mask[offset + (bit >>> 5)] |= 1 << bit;
+	}
+	
+	//The word in the action cell of a state and a terminal, the default reduce of the state if it has none
+	public int getAction(int state, int terminal)
+	{
+		if(!packed)
+			pack();
+		
+		int i = base[state] + terminal;
+		return check[i] == state ? next[i] : defaults[state];
+	}
+	
+	//The default reduce of a state if it has no other action, so it needs no lookahead, EMPTY otherwise
+	public int getConsistentReduce(int state)
+	{
+		if(!packed)
+			pack();
+		
+		return consistent[state];
+	}
+	
+	//The state the goto of a state on a non-terminal goes to. Only meaningful for a state that has a goto on it: any other
+	//state gets the non-terminal's default goto, or -1 if it has none. Use getEntry to know whether the goto is really there
+	public int getGoto(int state, int nonterminal)
+	{
+		if(!packed)
+			pack();
+		
+		int i = base[state] + nonterminal;
+		if(check[i] == state)
+			return getTarget(next[i]);
+		
+		int word = gotodefaults[nonterminal - terminals];
+		return word == EMPTY ? -1 : getTarget(word);
+	}
+	
+	//The word stored for the cell itself, EMPTY if it has none and uses the default
+	int getStoredWord(int row, int column)
+	{
+		pack();
+		
+		int i = base[row] + column;
+		return check[i] == row ? next[i] : EMPTY;
+	}
+	
+	//The word of the default reduce of a row, EMPTY if it has none
+	int getDefaultWord(int row)
+	{
+		pack();
+		return defaults[row];
+	}
+	
+	//The word of the default goto of a non-terminal, EMPTY if it has none
+	int getDefaultGotoWord(int nonterminal)
+	{
+		pack();
+		return gotodefaults[nonterminal - terminals];
+	}
+	
+	/*
+	 * The packed arrays, for a ParserGenerator to write out as they are
+	 * The arrays are shared, do not modify them
+	 */
+	int[] getBaseArray()
+	{
+		pack();
+		return base;
+	}
+	
+	int[] getNextArray()
+	{
+		pack();
+		return next;
+	}
+	
+	int[] getCheckArray()
+	{
+		pack();
+		return check;
+	}
+	
+	int[] getDefaultArray()
+	{
+		pack();
+		return defaults;
+	}
+	
+	int[] getConsistentArray()
+	{
+		pack();
+		return consistent;
+	}
+	
+	int[] getDefaultGotoArray()
+	{
+		pack();
+		return gotodefaults;
+	}
+	
+	int[] getReduceMask()
+	{
+		pack();
+		return reducemask;
+	}
+	
+	int[] getGotoMask()
+	{
+		pack();
+		return gotomask;
+	}
+	
+	/*
+	 * Takes the packed arrays of a table a TableCache stored, so a loaded table is not packed again
+	 * The arrays must be laid out as the getters above return them
+	 */
+	void setPacked(int[] base, int[] next, int[] check, int[] defaults, int[] consistent, int[] gotodefaults,
+			int[] reducemask, int[] gotomask)
+	{
+		this.base = base;
+		this.next = next;
+		this.check = check;
+		this.defaults = defaults;
+		this.consistent = consistent;
+		this.gotodefaults = gotodefaults;
+		this.reducemask = reducemask;
+		this.gotomask = gotomask;
+		
+		rowbuffer = null;
+		rowcolumns = null;
+		rowwords = null;
+		bufferrow = -1;
+		packed = true;
+	}
+	
+	//Records every entry of a cell of a loaded table, the first being the one in the table
+	void addConflict(int row, int column, List<Entry> entries)
+	{
+		conflicts.put(new Cell(row, column), new ArrayList<Entry>(entries));
+		conflictcount += entries.size() - 1;
 	}
 	
 	public boolean hasConflict()
 	{
-		return !conflictentries.isEmpty();
+		return !conflicts.isEmpty();
+	}
+	
+	//The entries that lost to an earlier entry of the same cell
+	public int conflictCount()
+	{
+		return conflictcount;
+	}
+	
+	public boolean isConflict(int row, int column)
+	{
+		return conflicts.containsKey(new Cell(row, column));
+	}
+	
+	//Every entry that was set for the cell in the order they were set, the first is in the table. Null if the cell has no conflict
+	public List<Entry> getConflictEntries(int row, int column)
+	{
+		ArrayList<Entry> entries = conflicts.get(new Cell(row, column));
+		return entries == null ? null : Collections.unmodifiableList(entries);
+	}
+	
+	//The cells with conflicts, in the order their first conflict was found
+	public Set<Cell> getConflictCells()
+	{
+		return Collections.unmodifiableSet(conflicts.keySet());
 	}
 	
 	public StringBuffer printTable()
@@ -176,14 +1167,14 @@ public class Table
 		output.append("     ");
 		System.out.print("     ");
 		
-		for(String s: dfa.getGrammar().getAllSymbols())
+		for(int j=0; j<columns; j++)
 		{
-			output.append(s+"         ");
-			System.out.print(s+"      ");
+			output.append(symbols.getName(j)+"         ");
+			System.out.print(symbols.getName(j)+"      ");
 		}
 		
-		output.append("$\n");
-		System.out.println("$");
+		output.append("\n");
+		System.out.println();
 		
 		for(int i=0; i<rows; i++)
 		{
@@ -193,7 +1184,7 @@ public class Table
 			{
 				if(getEntry(i, j) != null)
 				{
-					if(conflictrows.contains(i) && conflictcolumns.contains(j))
+					if(isConflict(i, j))
 					{
 						output.append("X       ");
 						System.out.print("X     ");
@@ -229,44 +1220,54 @@ public class Table
 			System.out.println("The parser has the following conflicts: ");
 			System.out.println("Cell 	Entries");
 			
-			ArrayList<Integer> newrow = new ArrayList<Integer>();
-			ArrayList<Integer> newcol = new ArrayList<Integer>();
-			
-			for(int i=0; i<conflictentries.size(); i++)
+			//each cell once, with every entry it had
+			for(Map.Entry<Cell, ArrayList<Entry>> conflict: conflicts.entrySet())
 			{
-				int row = conflictrows.get(i);
-				int col = conflictcolumns.get(i);
-				
-				if(newrow.size() == 0)
-				{
-					newrow.add(row);
-					newcol.add(col);
-				}
+				StringBuilder entries = new StringBuilder();
+				for(Entry entry: conflict.getValue())
+					entries.append(entry+" ");
 				
-				for(int j=0; j<newrow.size(); j++)
-				{
-					if(!(newrow.get(j) == row && newcol.get(j)== col))
-					{
-						newrow.add(row);
-						newcol.add(col);
-						break;
-					}
-				}
-				
-				System.out.println(row+", "+col+"       "+conflictentries.get(i));
-				output.append(row+", "+col+"            "+conflictentries.get(i)+"\n");
+				System.out.println(conflict.getKey()+"       "+entries);
+				output.append(conflict.getKey()+"            "+entries+"\n");
 			}
 			
-			for(int i=0; i<newrow.size(); i++)
+			if(dfa != null && !dfa.getMergeConflicts().isEmpty())
 			{
-				int row = newrow.get(i);
-				int col = newcol.get(i);
-				System.out.println(row+", "+col+"       "+getEntry(row, col));
-				output.append(row+", "+col+"            "+getEntry(row, col)+"\n");
+				output.append("Reduce/reduce conflicts introduced by merging "+dfa.getMode()+" states:\n");
+				System.out.println("Reduce/reduce conflicts introduced by merging "+dfa.getMode()+" states:");
+				for(String conflict: dfa.getMergeConflicts())
+				{
+					output.append(conflict+"\n");
+					System.out.println(conflict);
+				}
 			}
 		}
 	}
 	
+	/*
+	 * Builds the DFA and table of a grammar with every construction mode
+	 * and reports the number of states, the build times and the table size
+	 * of each, so the mode can be chosen per grammar
+	 */
+	public static StringBuffer compareModes(Grammar grammar)
+	{
+		StringBuffer report = new StringBuffer();
+		report.append(String.format("%-18s%10s%12s%12s%10s%10s%10s%12s%n", "Mode", "States", "DFA (ms)", "Table (ms)", 
+				"Cells", "Entries", "Ratio", "Conflicts"));
+		
+		for(DFA.Mode mode: DFA.Mode.values())
+		{
+			DFA dfa = new DFA(grammar, mode);
+			Table table = new Table(dfa);
+			
+			report.append(String.format("%-18s%10d%12.2f%12.2f%10d%10d%10.1f%12s%n", mode, dfa.statecount, dfa.getBuildTime(), 
+					table.getBuildTime(), table.size(), table.entryCount(), table.getCompressionRatio(), table.hasConflict() ? "yes" : "no"));
+		}
+		
+		System.out.print(report);
+		return report;
+	}
+	
 	public static void main(String[] args) 
 	{
 		Alphabet a = new Alphabet();
@@ -284,5 +1285,17 @@ public class Table
 		StringBuffer str = table.printTable();
 		
 		System.out.println(str);
+		
+		//B derives no string, so after bc nothing can follow and D-> must not become a default reduce
+		Alphabet dead = new Alphabet();
+		dead.add("a");
+		dead.add("b");
+		dead.add("c");
+		Grammar deadgrammar = new Grammar(dead, new String[]{"S->A$", "A->BDC", "A->CD", "A->CB", "B->DB", "C->Bc", "C->a", "C->bcB", "D->"});
+		for(DFA.Mode mode: DFA.Mode.values())
+		{
+			boolean rejected = !new Parser(new Table(new DFA(deadgrammar, mode))).parse("bc").toString().endsWith("ACCEPTED");
+			System.out.println(mode + (rejected ? ": bc rejected" : ": FAIL, bc accepted"));
+		}
 	}
 }
\ No newline at end of file
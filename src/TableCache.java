@@ -0,0 +1,451 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 
+ * Keeps compiled tables in files, so a grammar that was compiled before can be parsed
+ * without building its DFA and table again
+ * 
+ * A table is stored under a fingerprint, which is a SHA-256 hash of the alphabet, the
+ * productions, the precedence declarations and the construction mode. The file holds:
+ * 1. The fingerprint and the mode
+ * 2. The symbol names in order of id
+ * 3. The lhs id and rhs length of every rule, which is all the parser needs of the grammar
+ * 4. The packed arrays of the table as Table keeps them, so a loaded table is ready without packing,
+ * 		and the masks of which cells its defaults really stand for
+ * 5. Every entry of each cell that is in conflict
+ * 6. A CRC32 of everything before it
+ * 
+ * A file that is cut short, does not match its checksum or was written for another
+ * fingerprint is treated as missing
+ */
+public class TableCache
+{
+	private static final int MAGIC = 0x4C525442;	//LRTB
+	private static final int VERSION = 7;
+	private static final String EXTENSION = ".lrt";
+	
+	private Path directory;
+	
+	public TableCache(Path directory)
+	{
+		this.directory = directory;
+	}
+	
+	/*
+	 * Hashes everything the table depends on. Every string is written with its
+	 * length in front, so different inputs cannot hash the same bytes
+	 */
+	public static String fingerprint(Alphabet alphabet, String[] productions, DFA.Mode mode)
+	{
+		return fingerprint(alphabet, productions, new Precedence(), mode);
+	}
+	
+	public static String fingerprint(Alphabet alphabet, String[] productions, Precedence precedence, DFA.Mode mode)
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);	//every Java platform has SHA-256
+		}
+		
+		try(DataOutputStream out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest)))
+		{
+			out.writeInt(VERSION);
+			out.writeInt(alphabet.size());
+			for(String symbol: alphabet)
+				out.writeUTF(symbol);
+			
+			out.writeInt(productions.length);
+			for(String production: productions)
+				out.writeUTF(production);
+			
+			out.writeUTF(precedence.toString());
+			out.writeUTF(mode.name());
+		}
+		catch(IOException e)
+		{
+			throw new IllegalStateException(e);	//cannot happen, nothing is written anywhere
+		}
+		
+		StringBuilder hex = new StringBuilder();
+		for(byte b: digest.digest())
+			hex.append(String.format("%02x", b));
+		
+		return hex.toString();
+	}
+	
+	public static String fingerprint(Grammar grammar, DFA.Mode mode)
+	{
+		Grammar.Production[] productions = grammar.getAllProductions();
+		String[] strings = new String[productions.length];
+		for(int i=0; i<productions.length; i++)
+			strings[i] = productions[i].toString();
+		
+		return fingerprint(grammar.getAlphabet(), strings, grammar.getPrecedence(), mode);
+	}
+	
+	public Path getFile(String fingerprint)
+	{
+		return directory.resolve(fingerprint + EXTENSION);
+	}
+	
+	/*
+	 * Returns the table of a grammar from the cache if it is there. Otherwise builds
+	 * the grammar, DFA and table, and stores the table for the next time
+	 */
+	public Table getTable(Alphabet alphabet, String[] productions, DFA.Mode mode) throws IOException
+	{
+		return getTable(alphabet, productions, new Precedence(), mode);
+	}
+	
+	public Table getTable(Alphabet alphabet, String[] productions, Precedence precedence, DFA.Mode mode) throws IOException
+	{
+		String fingerprint = fingerprint(alphabet, productions, precedence, mode);
+		
+		Table table = load(fingerprint);
+		if(table == null)
+		{
+			Grammar grammar = new Grammar(alphabet, productions);
+			grammar.setPrecedence(precedence);
+			table = new Table(new DFA(grammar, mode));
+			store(fingerprint, table);
+		}
+		
+		return table;
+	}
+	
+	//Returns the table stored under the fingerprint, or null if there is no valid one
+	public Table load(String fingerprint) throws IOException
+	{
+		Path file = getFile(fingerprint);
+		if(!Files.isRegularFile(file))
+			return null;
+		
+		CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)), new CRC32());
+		try(DataInputStream in = new DataInputStream(checked))
+		{
+			Table table = readTable(in, fingerprint, Files.size(file));
+			if(table == null)
+				return null;
+			
+			long checksum = checked.getChecksum().getValue();
+			return in.readLong() == checksum ? table : null;
+		}
+		catch(EOFException e)
+		{
+			return null;
+		}
+	}
+	
+	/*
+	 * Stores a table under the fingerprint
+	 * The file is written beside the old one and moved over it, so a reader never sees half a file
+	 */
+	public void store(String fingerprint, Table table) throws IOException
+	{
+		Files.createDirectories(directory);
+		Path temp = Files.createTempFile(directory, fingerprint, ".tmp");
+		
+		try
+		{
+			CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)), new CRC32());
+			try(DataOutputStream out = new DataOutputStream(checked))
+			{
+				writeTable(out, fingerprint, table);
+				out.writeLong(checked.getChecksum().getValue());
+			}
+			
+			Files.move(temp, getFile(fingerprint), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	private void writeTable(DataOutputStream out, String fingerprint, Table table) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(fingerprint);
+		out.writeUTF(table.getMode().name());
+		
+		SymbolTable symbols = table.getSymbols();
+		out.writeInt(symbols.size());
+		out.writeInt(symbols.terminalCount());
+		for(int i=0; i<symbols.size(); i++)
+			out.writeUTF(symbols.getName(i));
+		
+		out.writeInt(table.getRuleCount());
+		for(int rule=0; rule<table.getRuleCount(); rule++)
+		{
+			out.writeInt(table.getRuleLHS(rule));
+			out.writeInt(table.getRuleLength(rule));
+		}
+		
+		out.writeInt(table.getRowCount());
+		writeArray(out, table.getBaseArray());
+		writeArray(out, table.getNextArray());
+		writeArray(out, table.getCheckArray());
+		writeArray(out, table.getDefaultArray());
+		writeArray(out, table.getConsistentArray());
+		writeArray(out, table.getDefaultGotoArray());
+		writeArray(out, table.getReduceMask());
+		writeArray(out, table.getGotoMask());
+		
+		out.writeInt(table.getConflictCells().size());
+		for(Table.Cell cell: table.getConflictCells())
+		{
+			List<Table.Entry> entries = table.getConflictEntries(cell.getRow(), cell.getColumn());
+			out.writeInt(cell.getRow());
+			out.writeInt(cell.getColumn());
+			out.writeInt(entries.size());
+			for(Table.Entry entry: entries)
+				writeEntry(out, entry);
+		}
+	}
+	
+	//The ints go through a byte array, since writing them one at a time updates the checksum a byte at a time
+	private void writeArray(DataOutputStream out, int[] values) throws IOException
+	{
+		out.writeInt(values.length);
+		
+		ByteBuffer bytes = ByteBuffer.allocate(values.length * 4);
+		bytes.asIntBuffer().put(values);
+		out.write(bytes.array());
+	}
+	
+	private void writeEntry(DataOutputStream out, Table.Entry entry) throws IOException
+	{
+		out.writeByte(entry.getEntryType());
+		out.writeInt(entry.getRuleNumber());
+	}
+	
+	/*
+	 * Returns null if the file is not a table for the fingerprint
+	 * No count in the file can be more than its length, which keeps a damaged count from making huge arrays
+	 */
+	private Table readTable(DataInputStream in, String fingerprint, long length) throws IOException
+	{
+		if(in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(fingerprint))
+			return null;
+		
+		DFA.Mode mode;
+		try
+		{
+			mode = DFA.Mode.valueOf(in.readUTF());
+		}
+		catch(IllegalArgumentException e)
+		{
+			return null;
+		}
+		
+		//the symbol table is made again the way a grammar makes it, and must give the same ids
+		int size = in.readInt();
+		int terminals = in.readInt();
+		if(terminals < 1 || terminals > size || size > length)
+			return null;
+		
+		String[] names = new String[size];
+		Alphabet alphabet = new Alphabet();
+		for(int i=0; i<size; i++)
+		{
+			names[i] = in.readUTF();
+			if(i < terminals - 1)
+				alphabet.add(names[i]);
+		}
+		
+		SymbolTable symbols = new SymbolTable(alphabet);
+		try
+		{
+			for(int i=terminals; i<size; i++)
+				symbols.addNonTerminal(names[i]);
+		}
+		catch(IllegalArgumentException e)
+		{
+			return null;
+		}
+		
+		if(symbols.size() != size)
+			return null;
+		for(int i=0; i<size; i++)
+		{
+			if(!symbols.getName(i).equals(names[i]))
+				return null;
+		}
+		
+		int rules = in.readInt();
+		if(rules < 0 || rules > length)
+			return null;
+		
+		int[] rulelhs = new int[rules];
+		int[] rulelength = new int[rules];
+		for(int rule=0; rule<rules; rule++)
+		{
+			rulelhs[rule] = in.readInt();
+			rulelength[rule] = in.readInt();
+			if(!symbols.isNonTerminal(rulelhs[rule]) || rulelength[rule] < 0)
+				return null;
+		}
+		
+		int rows = in.readInt();
+		if(rows < 0 || rows > length)
+			return null;
+		
+		int columns = size;
+		int[] base = readArray(in, length);
+		int[] next = readArray(in, length);
+		int[] check = readArray(in, length);
+		int[] defaults = readArray(in, length);
+		int[] consistent = readArray(in, length);
+		int[] gotodefaults = readArray(in, length);
+		int[] reducemask = readArray(in, length);
+		int[] gotomask = readArray(in, length);
+		if(base == null || next == null || check == null || defaults == null || consistent == null || gotodefaults == null
+				|| reducemask == null || gotomask == null)
+			return null;
+		if(base.length != rows || defaults.length != rows || consistent.length != rows || gotodefaults.length != size - terminals
+				|| check.length != next.length || reducemask.length != (long) rows * Table.maskWidth(terminals)
+				|| gotomask.length != (long) (size - terminals) * Table.maskWidth(rows))
+			return null;
+		
+		//every lookup must stay inside the arrays and find a word that fits its column
+		for(int row=0; row<rows; row++)
+		{
+			if(base[row] < 0 || base[row] > next.length - columns)
+				return null;
+			if(defaults[row] != Table.EMPTY && (Table.getKind(defaults[row]) != Table.REDUCE || Table.getTarget(defaults[row]) >= rules))
+				return null;
+			if(consistent[row] != Table.EMPTY && consistent[row] != defaults[row])
+				return null;
+		}
+		for(int i=0; i<next.length; i++)
+		{
+			if(check[i] == -1)
+				continue;
+			if(check[i] < -1 || check[i] >= rows)
+				return null;
+			
+			int column = i - base[check[i]];
+			if(column < 0 || column >= columns || !isValidWord(next[i], column >= terminals, rows, rules))
+				return null;
+		}
+		for(int word: gotodefaults)
+		{
+			if(word != Table.EMPTY && !isValidWord(word, true, rows, rules))
+				return null;
+		}
+		
+		Table table = new Table(symbols, mode, rows, rulelhs, rulelength);
+		table.setPacked(base, next, check, defaults, consistent, gotodefaults, reducemask, gotomask);
+		
+		//the first entry of a cell is the one in the table, the rest lost to it
+		int conflicts = in.readInt();
+		if(conflicts < 0 || conflicts > length)
+			return null;
+		for(int i=0; i<conflicts; i++)
+		{
+			int row = in.readInt();
+			int column = in.readInt();
+			int count = in.readInt();
+			if(row < 0 || row >= rows || column < 0 || column >= columns || count < 2 || count > length)
+				return null;
+			
+			ArrayList<Table.Entry> entries = new ArrayList<Table.Entry>();
+			for(int k=0; k<count; k++)
+			{
+				Table.Entry entry = readEntry(in, table);
+				if(entry == null)
+					return null;
+				entries.add(entry);
+			}
+			table.addConflict(row, column, entries);
+		}
+		
+		return table;
+	}
+	
+	//Returns null if the length is more than the file could hold. Read in one piece, the same as it is written
+	private int[] readArray(DataInputStream in, long length) throws IOException
+	{
+		int count = in.readInt();
+		if(count < 0 || count > length / 4)
+			return null;
+		
+		byte[] bytes = new byte[count * 4];
+		in.readFully(bytes);
+		
+		int[] values = new int[count];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+		return values;
+	}
+	
+	//A goto in a non-terminal column, a shift, reduce or error in a terminal column, with a target that exists
+	private boolean isValidWord(int word, boolean nonterminal, int rows, int rules)
+	{
+		switch(Table.getKind(word))
+		{
+			case Table.SHIFT: return !nonterminal && Table.getTarget(word) < rows;
+			case Table.REDUCE: return !nonterminal && Table.getTarget(word) < rules;
+			case Table.GOTO: return nonterminal && Table.getTarget(word) < rows;
+			default: return !nonterminal && word == Table.ERROR;
+		}
+	}
+	
+	//Returns null if the type is not one an entry can have
+	private Table.Entry readEntry(DataInputStream in, Table table) throws IOException
+	{
+		char type = (char) in.readByte();
+		int number = in.readInt();
+		
+		if(type != 's' && type != 'r' && type != 'g')
+			return null;
+		
+		return table.new Entry(type, number);
+	}
+	
+	public static void main(String[] args) throws IOException
+	{
+		Alphabet a = new Alphabet();
+		a.add("+");
+		a.add("*");
+		a.add("(");
+		a.add(")");
+		a.add("id");
+		String[] p = {"S->E$", "E->E+T", "E->T", "T->T*F", "T->F", "F->(E)", "F->id"};
+		
+		TableCache cache = new TableCache(Paths.get(System.getProperty("java.io.tmpdir"), "lr-table-cache"));
+		
+		for(int i=0; i<2; i++)
+		{
+			long start = System.nanoTime();
+			Table table = cache.getTable(a, p, DFA.Mode.CANONICAL);
+			System.out.println((table.getDFA() == null ? "Loaded" : "Built") + " in " + (System.nanoTime() - start) / 1e6 + " ms");
+			
+			new Parser(table).parse("id+id*(id)");
+		}
+	}
+}